@@ -2,4 +2,10 @@
 #!/bin/bash
 
 # Write a script to build your backend in this file 
-# (As required by your chosen backend language)
\ No newline at end of file
+# (As required by your chosen backend language)
+
+# Java 17+: the backend (src) and the MIPS classes it uses (mips-interpreter/src) go to build/
+cd "$(dirname "$0")"
+rm -rf build
+mkdir -p build
+javac -d build -cp mips-interpreter/src $(find src -name '*.java')
@@ -14,3 +14,8 @@
 # Produces out . s
 # run.sh path/to/file.ir --greedy
 # Produces out . s
+
+# The out.s path can also be given after the IR file: run.sh path/to/file.ir path/to/out.s --naive
+# (anything else is passed on to Demo, i.e. -O2)
+DIR="$(cd "$(dirname "$0")" && pwd)"
+java -cp "$DIR/build" Demo "$@"
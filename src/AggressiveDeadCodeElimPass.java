@@ -0,0 +1,137 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+public class AggressiveDeadCodeElimPass implements FunctionPass {
+    // ADCE: like markAlg but branches are not critical up front
+        // critical: RETURN, CALL/CALLR, ARRAY_STORE (what the program can observe), calls to pure functions
+        // (see SideEffects) are not, they only matter if their result does
+        // a marked node marks its reaching defs (like markAlg) and the branches it is control dependent on
+        // a branch nothing useful depends on gets replaced with a goto to its nearest marked post-dominator
+        // (everything it could have picked between is dead), GOTOs and LABELs stay for simplify-cfg
+        // so a loop that computes nothing anybody uses goes away completely
+        // NOTE: if some code can never reach the exit (infinite loop) we cannot trust the post-dominators,
+        //       then branches are critical like in markAlg
+    public String getName() {
+        return "adce";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        ReachingDefs defs = cache.get(function, Analyses.REACHING_DEFS);
+        IRcfg cfg = defs.cfg;
+        if (cfg.nodes.isEmpty()) {
+            return false;
+        }
+        PostDominatorTree pdom = cache.get(function, Analyses.POST_DOMINATORS);
+        ControlDependence control_dependence = cache.get(function, Analyses.CONTROL_DEPENDENCE);
+        SideEffects effects = (SideEffects) cache.getProgramResult(SideEffects.NAME);
+        boolean branches_critical = false;
+        for (IRNode node : cfg.nodes) {
+            if (!pdom.reachesExit(node)) {
+                branches_critical = true;
+            }
+        }
+
+        Queue<IRNode> worklist = new LinkedList<>();
+        for (IRNode node : cfg.nodes) {
+            node.is_marked = isCritical(node.instruction, effects) || (branches_critical && IRRewriter.isBranch(node.instruction));
+            if (node.is_marked) {
+                worklist.add(node);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            IRNode node = worklist.poll();
+            List<IRNode> needed = new ArrayList<>(defs.reachingDefs(node));
+            if (!branches_critical) {
+                needed.addAll(control_dependence.branchesControlling(node));
+            }
+            for (IRNode maybe_important : needed) {
+                if (!maybe_important.is_marked) {
+                    maybe_important.is_marked = true;
+                    worklist.add(maybe_important);
+                }
+            }
+        }
+
+        // sweep: labels and gotos stay, dead branches jump to where the useful code continues
+        Set<String> labels = IRRewriter.labelNames(function);
+        int line_number = IRRewriter.maxLineNumber(function);
+        Map<IRNode, String> new_labels = new HashMap<>(); // marked node -> label we put in front of it
+        String end_label = null;
+        Map<IRNode, IRInstruction> rewired = new HashMap<>();
+        boolean changed = false;
+        for (IRNode node : cfg.nodes) {
+            if (node.is_marked || node.instruction.opCode == IRInstruction.OpCode.LABEL
+                    || node.instruction.opCode == IRInstruction.OpCode.GOTO) {
+                continue;
+            }
+            changed = true;
+            if (!IRRewriter.isBranch(node.instruction)) {
+                continue;
+            }
+            IRNode target = pdom.ipdom(node);
+            while (target != null && !target.is_marked) {
+                target = pdom.ipdom(target);
+            }
+            String target_label;
+            if (target == null) { // nothing useful left on the way out, go to the end of the function
+                if (end_label == null) {
+                    end_label = IRRewriter.freshName(function.name + "_adce_end", labels);
+                }
+                target_label = end_label;
+            } else {
+                if (!new_labels.containsKey(target)) {
+                    new_labels.put(target, IRRewriter.freshName(function.name + "_adce", labels));
+                }
+                target_label = new_labels.get(target);
+            }
+            rewired.put(node, IRRewriter.newGoto(target_label, ++line_number));
+        }
+        if (!changed) {
+            return false;
+        }
+
+        List<IRInstruction> final_instructions = new ArrayList<>();
+        for (IRNode node : cfg.nodes) {
+            if (new_labels.containsKey(node)) {
+                final_instructions.add(IRRewriter.newLabel(new_labels.get(node), ++line_number));
+            }
+            if (rewired.containsKey(node)) {
+                final_instructions.add(rewired.get(node));
+            } else if (node.is_marked || node.instruction.opCode == IRInstruction.OpCode.LABEL
+                    || node.instruction.opCode == IRInstruction.OpCode.GOTO) {
+                final_instructions.add(node.instruction);
+            }
+        }
+        if (end_label != null) {
+            final_instructions.add(IRRewriter.newLabel(end_label, ++line_number));
+        }
+        function.instructions = final_instructions;
+        return true;
+    }
+
+    private static boolean isCritical(IRInstruction instruc, SideEffects effects) {
+        switch (instruc.opCode) {
+            case RETURN, ARRAY_STORE -> {
+                return true;
+            }
+            case CALL, CALLR -> {
+                return effects == null || !effects.isPure(CallGraph.calleeName(instruc));
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.MIPSOperand;
+import main.java.mips.operand.Register;
+
+public class AllocationReport {
+    // What a register allocator did to each function, static counts (--alloc-report prints it to stderr)
+        // loads/stores: the lw/sw it added to move virtual registers between their stack slots and registers
+        // spills: live ranges that did not get a register (with naive that is every virtual register)
+        // colors: how many $t registers the function ended up using, coalesced: moves that went away (--chaitin)
+    public static class Record {
+        public String function;
+        public int instrucs; // the function's code once allocated (without prologue/epilogues)
+        public int loads;
+        public int stores;
+        public int spills;
+        public int colors;
+        public int coalesced;
+
+        // fill in what can be read off the allocated code
+        public void finish(List<MIPSInstruction> allocated) {
+            Set<String> used = new HashSet<>();
+            for (MIPSInstruction instruc : allocated) {
+                for (MIPSOperand operand : instruc.operands) {
+                    Register reg = (operand instanceof Addr) ? ((Addr) operand).register : (operand instanceof Register) ? (Register) operand : null;
+                    if (reg != null && reg.name.startsWith("$t")) {
+                        used.add(reg.name);
+                    }
+                }
+            }
+            instrucs = allocated.size();
+            colors = used.size();
+        }
+    }
+
+    public List<Record> records = new ArrayList<>();
+
+    public Record record(String function) {
+        Record record = new Record();
+        record.function = function;
+        records.add(record);
+        return record;
+    }
+
+    // the record of a function allocated before (a new one if there is none)
+    public Record recordOf(String function) {
+        for (Record record : records) {
+            if (record.function.equals(function)) {
+                return record;
+            }
+        }
+        return record(function);
+    }
+
+    public void printReport(PrintStream ps, String allocator) {
+        ps.println("Register allocation report (" + allocator + "):");
+        ps.println(String.format("  %-16s %8s %8s %8s %8s %8s %9s", "function", "instrucs", "loads", "stores", "spills", "colors", "coalesced"));
+        Record total = new Record();
+        for (Record record : records) {
+            ps.println(String.format("  %-16s %8d %8d %8d %8d %8d %9d", record.function, record.instrucs, record.loads, record.stores,
+                    record.spills, record.colors, record.coalesced));
+            total.instrucs += record.instrucs;
+            total.loads += record.loads;
+            total.stores += record.stores;
+            total.spills += record.spills;
+            total.colors = Math.max(total.colors, record.colors);
+            total.coalesced += record.coalesced;
+        }
+        ps.println(String.format("  %-16s %8d %8d %8d %8d %8d %9d", "total", total.instrucs, total.loads, total.stores,
+                total.spills, total.colors, total.coalesced));
+    }
+}
@@ -0,0 +1,113 @@
+import ir.IRFunction;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class Analyses {
+    // The analyses the PassManager knows how to build (and cache) for a function
+    public static final String ALL = "*";
+
+    public static final FunctionAnalysis<IRcfg> CFG = new FunctionAnalysis<>() {
+        public String getName() {
+            return "cfg";
+        }
+
+        public IRcfg compute(IRFunction function, AnalysisCache cache) {
+            return new IRcfg(function);
+        }
+    };
+
+    // Reaching definitions + use-def chains (over the cached CFG's nodes)
+    public static final FunctionAnalysis<ReachingDefs> REACHING_DEFS = new FunctionAnalysis<>() {
+        public String getName() {
+            return "reaching-defs";
+        }
+
+        public ReachingDefs compute(IRFunction function, AnalysisCache cache) {
+            return new ReachingDefs(cache.get(function, CFG));
+        }
+    };
+
+    public static final FunctionAnalysis<Liveness> LIVENESS = new FunctionAnalysis<>() {
+        public String getName() {
+            return "liveness";
+        }
+
+        public Liveness compute(IRFunction function, AnalysisCache cache) {
+            return new Liveness(cache.get(function, CFG));
+        }
+    };
+
+    public static final FunctionAnalysis<DominatorTree> DOMINATORS = new FunctionAnalysis<>() {
+        public String getName() {
+            return "dominators";
+        }
+
+        public DominatorTree compute(IRFunction function, AnalysisCache cache) {
+            return new DominatorTree(cache.get(function, CFG));
+        }
+    };
+
+    public static final FunctionAnalysis<LoopForest> LOOPS = new FunctionAnalysis<>() {
+        public String getName() {
+            return "loops";
+        }
+
+        public LoopForest compute(IRFunction function, AnalysisCache cache) {
+            return new LoopForest(cache.get(function, CFG), cache.get(function, DOMINATORS));
+        }
+    };
+
+    public static final FunctionAnalysis<PostDominatorTree> POST_DOMINATORS = new FunctionAnalysis<>() {
+        public String getName() {
+            return "post-dominators";
+        }
+
+        public PostDominatorTree compute(IRFunction function, AnalysisCache cache) {
+            return new PostDominatorTree(cache.get(function, CFG));
+        }
+    };
+
+    public static final FunctionAnalysis<ControlDependence> CONTROL_DEPENDENCE = new FunctionAnalysis<>() {
+        public String getName() {
+            return "control-dependence";
+        }
+
+        public ControlDependence compute(IRFunction function, AnalysisCache cache) {
+            return new ControlDependence(cache.get(function, CFG), cache.get(function, POST_DOMINATORS));
+        }
+    };
+
+    // the analyses whose results are per node facts (the big ones), PassManager drops them after every pass
+    public static final Set<String> DATAFLOW = Set.of(REACHING_DEFS.getName(), LIVENESS.getName());
+
+    // analysis name -> analyses it is built from (if one of those goes, so does this one)
+    private static Map<String, List<String>> depends_on = new HashMap<>();
+    static {
+        depends_on.put(REACHING_DEFS.getName(), List.of(CFG.getName()));
+        depends_on.put(LIVENESS.getName(), List.of(CFG.getName()));
+        depends_on.put(DOMINATORS.getName(), List.of(CFG.getName()));
+        depends_on.put(LOOPS.getName(), List.of(CFG.getName(), DOMINATORS.getName()));
+        depends_on.put(POST_DOMINATORS.getName(), List.of(CFG.getName()));
+        depends_on.put(CONTROL_DEPENDENCE.getName(), List.of(CFG.getName(), POST_DOMINATORS.getName()));
+    }
+
+    public static boolean dependsOnAny(String analysis_name, Set<String> analysis_names) {
+        Set<String> seen = new HashSet<>();
+        return dependsOnAny(analysis_name, analysis_names, seen);
+    }
+
+    private static boolean dependsOnAny(String analysis_name, Set<String> analysis_names, Set<String> seen) {
+        if (!seen.add(analysis_name)) {
+            return false;
+        }
+        for (String dep : depends_on.getOrDefault(analysis_name, List.of())) {
+            if (analysis_names.contains(dep) || dependsOnAny(dep, analysis_names, seen)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+import ir.IRFunction;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+public class AnalysisCache {
+    // function -> (analysis name -> result)
+        // NOTE: IRFunction does not override equals/hashCode so this is keyed on the function object itself
+    private Map<IRFunction, Map<String, Object>> results = new HashMap<>();
+    private Map<String, Object> program_results = new HashMap<>(); // whole program analyses (e.g. SideEffects)
+    private PassStats stats;
+
+    public AnalysisCache() {
+        this(new PassStats());
+    }
+
+    public AnalysisCache(PassStats stats) {
+        this.stats = stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(IRFunction function, FunctionAnalysis<T> analysis) {
+        Map<String, Object> function_results = results.computeIfAbsent(function, k -> new HashMap<>());
+        if (function_results.containsKey(analysis.getName())) {
+            return (T) function_results.get(analysis.getName());
+        }
+        // not cached (or thrown away by a pass) so compute it and remember how long that took
+        long start_time = System.nanoTime();
+        long start_bytes = PassStats.allocatedBytes();
+        T result = analysis.compute(function, this);
+        stats.record(analysis.getName(), function.name, true, System.nanoTime() - start_time,
+                PassStats.allocatedBytes() - start_bytes, function.instructions.size(), function.instructions.size());
+        function_results.put(analysis.getName(), result);
+        return result;
+    }
+
+    public boolean isCached(IRFunction function, String analysis_name) {
+        Map<String, Object> function_results = results.get(function);
+        return function_results != null && function_results.containsKey(analysis_name);
+    }
+
+    public void invalidate(IRFunction function, Set<String> analysis_names) {
+        Map<String, Object> function_results = results.get(function);
+        if (function_results == null) {
+            return;
+        }
+        if (analysis_names.contains(Analyses.ALL)) {
+            function_results.clear();
+            return;
+        }
+        Iterator<String> it = function_results.keySet().iterator();
+        while (it.hasNext()) {
+            String name = it.next();
+            if (analysis_names.contains(name) || Analyses.dependsOnAny(name, analysis_names)) {
+                it.remove();
+            }
+        }
+    }
+
+    public void invalidateAll(IRFunction function) {
+        results.remove(function);
+    }
+
+    public void putProgramResult(String name, Object result) {
+        program_results.put(name, result);
+    }
+
+    // null if nobody computed it (or a program pass threw it away)
+    public Object getProgramResult(String name) {
+        return program_results.get(name);
+    }
+
+    public void invalidateProgramResults() {
+        program_results.clear();
+    }
+
+    public PassStats getStats() {
+        return stats;
+    }
+}
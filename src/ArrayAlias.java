@@ -0,0 +1,24 @@
+import ir.IRFunction;
+import ir.operand.IRVariableOperand;
+
+public class ArrayAlias {
+    // Tiger-IR arrays are passed by reference, so two array names in a function can only
+    // point at the same memory if they are the same name or both are parameters
+    // (the caller may pass the same array twice). A local array never aliases anything else.
+
+    public static boolean isParameter(IRFunction function, String var) {
+        for (IRVariableOperand param : function.parameters) {
+            if (param.getName().equals(var)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean mayAlias(IRFunction function, String array1, String array2) {
+        if (array1.equals(array2)) {
+            return true;
+        }
+        return isParameter(function, array1) && isParameter(function, array2);
+    }
+}
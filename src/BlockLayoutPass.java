@@ -0,0 +1,220 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class BlockLayoutPass implements FunctionPass {
+    // Profile guided block layout: the hot path becomes straight line code, blocks that never ran go last
+        // 1. cut the function into basic blocks and give every block the count of its hottest instruction
+        //    (blocks the profile knows nothing about, like fresh code from other passes, get the count of the
+        //    block before them)
+        // 2. make every fallthrough an explicit goto so blocks can go anywhere
+        // 3. chains (Pettis-Hansen): go over the edges hottest first, an edge a -> b glues the chain ending
+        //    in a to the chain starting with b, so the hottest edges become fallthroughs
+        //    then the chain with the entry, the other chains that ran in source order, cold chains last
+        // 4. simplify-cfg afterwards drops the gotos to the next block and turns
+        //    brX hot; goto cold; hot:  into  br!X cold; hot:  so the hot path falls through
+        // NOTE: without a profile (or if it has nothing on this function) nothing happens
+    private ExecutionProfile profile;
+
+    public BlockLayoutPass(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    public String getName() {
+        return "block-layout";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    private static class Block {
+        public List<IRInstruction> instructions = new ArrayList<>();
+        public String label; // the first of its labels, null if it has none (only fallen into)
+        public long count = -1;
+        public Block fallthrough; // next block in source order if we can fall into it
+        public List<Block> chain; // the chain it is in (while building the layout)
+    }
+
+    private static class Edge {
+        public Block from;
+        public Block to;
+        public long weight;
+
+        public Edge(Block from, Block to, long weight) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+        }
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        if (profile == null || function.instructions.isEmpty()) {
+            return false;
+        }
+        List<Block> blocks = splitBlocks(function);
+        boolean known = false;
+        for (Block block : blocks) {
+            known |= block.count >= 0;
+        }
+        if (!known || blocks.size() < 3) {
+            return false;
+        }
+        long previous = 1;
+        for (Block block : blocks) {
+            if (block.count < 0) {
+                block.count = previous;
+            }
+            previous = block.count;
+        }
+
+        Map<String, Block> by_label = new HashMap<>();
+        for (Block block : blocks) {
+            for (IRInstruction instruc : block.instructions) {
+                if (instruc.opCode == IRInstruction.OpCode.LABEL) {
+                    by_label.put(IRRewriter.labelOf(instruc), block);
+                }
+            }
+        }
+        List<Edge> edges = new ArrayList<>();
+        for (Block block : blocks) {
+            edges.addAll(edgesOf(function, block, by_label));
+            block.chain = new ArrayList<>(List.of(block));
+        }
+        edges.sort(Comparator.comparingLong((Edge e) -> e.weight).reversed()); // stable, ties stay in source order
+        for (Edge edge : edges) {
+            List<Block> from_chain = edge.from.chain;
+            List<Block> to_chain = edge.to.chain;
+            if (edge.weight <= 0 || from_chain == to_chain || edge.to == blocks.get(0)
+                    || from_chain.get(from_chain.size() - 1) != edge.from || to_chain.get(0) != edge.to) {
+                continue;
+            }
+            from_chain.addAll(to_chain);
+            for (Block block : to_chain) {
+                block.chain = from_chain;
+            }
+        }
+
+        List<Block> order = new ArrayList<>(blocks.get(0).chain);
+        List<Block> cold = new ArrayList<>();
+        for (Block block : blocks) {
+            if (block.chain.get(0) != block || block == blocks.get(0)) {
+                continue;
+            }
+            boolean ran = false;
+            for (Block member : block.chain) {
+                ran |= member.count > 0;
+            }
+            (ran ? order : cold).addAll(block.chain);
+        }
+        order.addAll(cold);
+        // the chain that falls off the end of the function stays last (saves a goto on the way out)
+        Block exit = blocks.get(blocks.size() - 1);
+        if (exit.fallthrough == null && !endsBlock(exit) && exit.chain.get(exit.chain.size() - 1) == exit
+                && exit.chain != blocks.get(0).chain) {
+            order.removeAll(exit.chain);
+            order.addAll(exit.chain);
+        }
+        if (order.equals(blocks)) {
+            return false;
+        }
+
+        // every block that used to fall into the next one now jumps there
+        Set<String> labels = IRRewriter.labelNames(function);
+        int line_number = IRRewriter.maxLineNumber(function);
+        String end_label = null;
+        for (Block block : blocks) {
+            if (endsBlock(block)) {
+                continue;
+            }
+            String target;
+            if (block.fallthrough == null) { // falls off the end of a void function
+                if (end_label == null) {
+                    end_label = IRRewriter.freshName(function.name + "_layout_end", labels);
+                }
+                target = end_label;
+            } else {
+                if (block.fallthrough.label == null) {
+                    block.fallthrough.label = IRRewriter.freshName(function.name + "_layout", labels);
+                    block.fallthrough.instructions.add(0, IRRewriter.newLabel(block.fallthrough.label, ++line_number));
+                }
+                target = block.fallthrough.label;
+            }
+            block.instructions.add(IRRewriter.newGoto(target, ++line_number));
+        }
+
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        for (Block block : order) {
+            new_instructions.addAll(block.instructions);
+        }
+        if (end_label != null) {
+            new_instructions.add(IRRewriter.newLabel(end_label, ++line_number));
+        }
+        function.instructions = new_instructions;
+        return true;
+    }
+
+    private List<Block> splitBlocks(IRFunction function) {
+        List<Block> blocks = new ArrayList<>();
+        boolean[] leaders = ExecutionProfile.leaders(function);
+        Block block = null;
+        boolean only_labels = false; // the current block is nothing but labels so far
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction instruc = function.instructions.get(i);
+            boolean is_label = instruc.opCode == IRInstruction.OpCode.LABEL;
+            // a run of labels is one block, whichever of them a jump names
+            if (leaders[i] && !(is_label && only_labels)) {
+                Block next = new Block();
+                if (block != null && !endsBlock(block)) {
+                    block.fallthrough = next;
+                }
+                block = next;
+                blocks.add(block);
+                only_labels = true;
+            }
+            only_labels &= is_label;
+            block.instructions.add(instruc);
+            if (block.label == null && is_label) {
+                block.label = IRRewriter.labelOf(instruc);
+            }
+            block.count = Math.max(block.count, profile.count(function, instruc));
+        }
+        return blocks;
+    }
+
+    // true if the block never falls into whatever comes after it
+    private static boolean endsBlock(Block block) {
+        IRInstruction last = block.instructions.get(block.instructions.size() - 1);
+        return last.opCode == IRInstruction.OpCode.GOTO || last.opCode == IRInstruction.OpCode.RETURN;
+    }
+
+    // the ways out of a block and how often we took them (edge counts for a branch if we have them, if not
+    // a guess from the block counts), a fallthrough comes first so it wins ties
+    private List<Edge> edgesOf(IRFunction function, Block block, Map<String, Block> by_label) {
+        List<Edge> edges = new ArrayList<>();
+        IRInstruction last = block.instructions.get(block.instructions.size() - 1);
+        Block target = (IRRewriter.targetOf(last) != null) ? by_label.get(IRRewriter.targetOf(last)) : null;
+        long taken = IRRewriter.isBranch(last) ? profile.takenCount(function, last) : -1;
+        long runs = profile.count(function, last);
+        if (block.fallthrough != null) {
+            long weight = Math.min(block.count, block.fallthrough.count);
+            if (taken >= 0 && runs >= 0) {
+                weight = runs - taken;
+            }
+            edges.add(new Edge(block, block.fallthrough, weight));
+        }
+        if (target != null) {
+            long weight = Math.min(block.count, target.count);
+            if (taken >= 0) {
+                weight = taken;
+            }
+            edges.add(new Edge(block, target, weight));
+        }
+        return edges;
+    }
+}
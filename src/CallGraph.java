@@ -0,0 +1,118 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.operand.IRFunctionOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CallGraph {
+    // Who calls who in an IRProgram (calls to intrinsics like puti/geti are not in here)
+        // sccs are the strongly connected components in bottom-up order: a component only calls
+        // functions in itself or in components that come before it
+    public static class CallSite {
+        public IRFunction caller;
+        public IRFunction callee;
+        public IRInstruction instruction;
+
+        public CallSite(IRFunction caller, IRFunction callee, IRInstruction instruction) {
+            this.caller = caller;
+            this.callee = callee;
+            this.instruction = instruction;
+        }
+    }
+
+    public Map<String, IRFunction> functions = new HashMap<>();
+    public Map<IRFunction, List<CallSite>> calls_from = new HashMap<>();
+    public Map<IRFunction, List<CallSite>> calls_to = new HashMap<>();
+    public List<List<IRFunction>> sccs = new ArrayList<>();
+    private Map<IRFunction, List<IRFunction>> scc_of = new HashMap<>();
+
+    public CallGraph(IRProgram program) {
+        for (IRFunction function : program.functions) {
+            functions.put(function.name, function);
+            calls_from.put(function, new ArrayList<>());
+            calls_to.put(function, new ArrayList<>());
+        }
+        for (IRFunction function : program.functions) {
+            for (IRInstruction instruc : function.instructions) {
+                IRFunction callee = functions.get(calleeName(instruc));
+                if (callee != null) {
+                    CallSite site = new CallSite(function, callee, instruc);
+                    calls_from.get(function).add(site);
+                    calls_to.get(callee).add(site);
+                }
+            }
+        }
+        findSCCs(program);
+    }
+
+    // name of the function a CALL/CALLR calls (null for anything else)
+    public static String calleeName(IRInstruction instruc) {
+        if (instruc.opCode == IRInstruction.OpCode.CALL) {
+            return ((IRFunctionOperand) instruc.operands[0]).getName();
+        }
+        if (instruc.opCode == IRInstruction.OpCode.CALLR) {
+            return ((IRFunctionOperand) instruc.operands[1]).getName();
+        }
+        return null;
+    }
+
+    public List<IRFunction> sccOf(IRFunction function) {
+        return scc_of.get(function);
+    }
+
+    // true if function can end up calling itself (directly or through other functions)
+    public boolean isRecursive(IRFunction function) {
+        if (scc_of.get(function).size() > 1) {
+            return true;
+        }
+        for (CallSite site : calls_from.get(function)) {
+            if (site.callee == function) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Tarjan's algorithm, it finishes components callees first which is the order we want
+    private Map<IRFunction, Integer> index = new HashMap<>();
+    private Map<IRFunction, Integer> low_link = new HashMap<>();
+    private List<IRFunction> stack = new ArrayList<>();
+    private int next_index = 0;
+
+    private void findSCCs(IRProgram program) {
+        for (IRFunction function : program.functions) {
+            if (!index.containsKey(function)) {
+                strongConnect(function);
+            }
+        }
+    }
+
+    private void strongConnect(IRFunction function) {
+        index.put(function, next_index);
+        low_link.put(function, next_index);
+        next_index++;
+        stack.add(function);
+        for (CallSite site : calls_from.get(function)) {
+            IRFunction callee = site.callee;
+            if (!index.containsKey(callee)) {
+                strongConnect(callee);
+                low_link.put(function, Math.min(low_link.get(function), low_link.get(callee)));
+            } else if (stack.contains(callee)) {
+                low_link.put(function, Math.min(low_link.get(function), index.get(callee)));
+            }
+        }
+        if (low_link.get(function).equals(index.get(function))) {
+            List<IRFunction> scc = new ArrayList<>();
+            IRFunction member;
+            do {
+                member = stack.remove(stack.size() - 1);
+                scc.add(member);
+                scc_of.put(member, scc);
+            } while (member != function);
+            sccs.add(scc);
+        }
+    }
+}
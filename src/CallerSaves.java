@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.Register;
+
+public class CallerSaves {
+    // Saves and restores of the caller-saved $t registers around the calls of one allocated function
+        // a register is saved at a jal only if it is live across it (liveness over the $t registers of the allocated
+        // code, see MIPScfg) and the callee can write it (SideEffects.registersToSave, from the callees' code), so it has
+        // to run once every function is allocated
+        // the lw goes right after the jal, the sw moves out to the preheader of the outermost loop around the call that
+        // never writes the register: its value (and so what is in its slot) stays the same for the whole loop
+        // a preheader here is the block just above the header falling into it, when that is the only way into the loop
+        // (the sw goes between that block and the header's label, so the back edges jump past it)
+        // every $t register has one slot of its own in the frame (Frame.slotFor("$tN"))
+
+    public static List<MIPSInstruction> insert(List<MIPSInstruction> code, Frame frame, SideEffects effects, AllocationReport.Record record) {
+        MIPScfg cfg = new MIPScfg(code, true);
+        cfg.computeLoopDepths();
+        List<BitSet> written = new ArrayList<>(); // block id -> registers it writes
+        for (MIPScfg.Block block : cfg.blocks) {
+            BitSet writes = new BitSet();
+            for (int i = block.start; i < block.end; i++) {
+                if (cfg.write(code.get(i)) != null) {
+                    writes.set(cfg.regId(cfg.write(code.get(i))));
+                }
+            }
+            written.add(writes);
+        }
+
+        Map<Integer, Set<String>> saves_before = new HashMap<>(); // code index -> registers to sw right before it
+        Map<Integer, Set<String>> restores_after = new HashMap<>();
+        for (MIPScfg.Block block : cfg.blocks) {
+            int call = block.end - 1;
+            if (code.get(call).op != MIPSOp.JAL) {
+                continue;
+            }
+            Set<String> live_across = new TreeSet<>();
+            for (int id = block.live_out.nextSetBit(0); id >= 0; id = block.live_out.nextSetBit(id + 1)) {
+                live_across.add(cfg.reg_names.get(id));
+            }
+            String callee = ((Addr) code.get(call).operands.get(0)).label;
+            for (String reg : effects.registersToSave(callee, live_across)) {
+                int save_at = call;
+                // out of every loop (innermost first) that leaves the register alone and can be entered only from above
+                for (MIPScfg.Block header : loopsAround(cfg, block)) {
+                    if (writesIn(cfg, written, cfg.loop_bodies.get(header), reg) || !hasPreheader(cfg, header)) {
+                        break;
+                    }
+                    save_at = header.start;
+                }
+                saves_before.computeIfAbsent(save_at, k -> new TreeSet<>()).add(reg);
+                restores_after.computeIfAbsent(call, k -> new TreeSet<>()).add(reg);
+            }
+        }
+
+        List<MIPSInstruction> saved = new ArrayList<>();
+        for (int i = 0; i < code.size(); i++) {
+            for (String reg : saves_before.getOrDefault(i, Set.of())) {
+                saved.add(RegisterAllocator.store(new Register(reg, false), reg, frame));
+                record.stores++;
+            }
+            saved.add(code.get(i));
+            for (String reg : restores_after.getOrDefault(i, Set.of())) {
+                saved.add(RegisterAllocator.load(new Register(reg, false), reg, frame));
+                record.loads++;
+            }
+        }
+        return saved;
+    }
+
+    // headers of the loops block is in, innermost (smallest) first
+    private static List<MIPScfg.Block> loopsAround(MIPScfg cfg, MIPScfg.Block block) {
+        List<MIPScfg.Block> headers = new ArrayList<>();
+        for (Map.Entry<MIPScfg.Block, BitSet> loop : cfg.loop_bodies.entrySet()) {
+            if (loop.getValue().get(block.id)) {
+                headers.add(loop.getKey());
+            }
+        }
+        headers.sort((a, b) -> cfg.loop_bodies.get(a).cardinality() - cfg.loop_bodies.get(b).cardinality());
+        return headers;
+    }
+
+    private static boolean writesIn(MIPScfg cfg, List<BitSet> written, BitSet body, String reg) {
+        int id = cfg.regId(new Register(reg, false));
+        for (int b = body.nextSetBit(0); b >= 0; b = body.nextSetBit(b + 1)) {
+            if (id >= 0 && written.get(b).get(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the only edge into the loop from outside is the block above the header falling through into it
+    private static boolean hasPreheader(MIPScfg cfg, MIPScfg.Block header) {
+        if (header.id == 0) {
+            return false;
+        }
+        MIPScfg.Block above = cfg.blocks.get(header.id - 1);
+        MIPSInstruction last = cfg.code.get(above.end - 1);
+        if (cfg.loop_bodies.get(header).get(above.id) || MIPScfg.isBranch(last) || last.op == MIPSOp.J || last.op == MIPSOp.JR) {
+            return false;
+        }
+        for (MIPScfg.Block pred : header.preds) {
+            if (pred != above && !cfg.loop_bodies.get(header).get(pred.id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
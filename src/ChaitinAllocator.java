@@ -0,0 +1,376 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Register;
+
+public class ChaitinAllocator implements RegisterAllocator {
+    // Whole function graph coloring over $t0-$t9, Chaitin's allocator with Briggs' optimistic coloring (--chaitin)
+        // build: the interference graph from the liveness (see MIPScfg), each block walked backwards, a def interferes
+        //   with everything live after it, except for a move with the register it copies
+        // coalesce: the two sides of a move that do not interfere become one node if that cannot make the graph harder to
+        //   color, Briggs (the merged node has fewer than K neighbors of degree >= K) or George (every neighbor of one side
+        //   already interferes with the other or has degree < K), over and over until no move qualifies
+        // simplify: take out nodes of degree < K, when there are none push the one with the lowest spill cost per degree
+        //   anyway, optimistically, it may still find a color
+        // select: pop them back, each takes the lowest register its neighbors do not have, one that finds none spills
+        // spill: every def of a spilled register stores it to its slot and every use loads it, through new registers that
+        //   only live for that one instruction (and are never picked to spill), then build again until nothing spills
+        // spill cost: its defs and uses, each counted as ExecutionProfile.spillWeight says (how often it ran, or
+        //   10^loop depth without a profile)
+        // values live across a call stay in their registers, CallerSaves puts the saves and restores around it
+    public static final int K = GreedyAllocator.REGISTERS.length;
+    private ExecutionProfile profile; // null: loop depths only
+    private AllocationReport report = new AllocationReport();
+
+    public ChaitinAllocator(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    // the interference graph of one round, nodes are the register ids of its MIPScfg
+        // the usual two views of it: a bit matrix (lower triangle) to ask whether two nodes interfere, and adjacency lists
+        // (plain int arrays, a big function has millions of edges) to walk a node's neighbors
+        // a coalesced node is left in the lists of its old neighbors (they got an edge to what it was merged into
+        // instead), so walks skip nodes with alias[n] != n, degree only counts the ones that still stand for themselves
+    private static class Graph {
+        MIPScfg cfg;
+        int num_nodes;
+        BitSet matrix = new BitSet();
+        int[][] adj;
+        int[] adj_size;
+        int[] degree;
+        int[] alias; // what a node was coalesced into
+        double[] cost;
+        boolean[] unspillable;
+        List<int[]> moves = new ArrayList<>(); // dest, source
+        int[] color;
+
+        Graph(MIPScfg cfg) {
+            this.cfg = cfg;
+            num_nodes = cfg.numRegs();
+            adj = new int[num_nodes][];
+            adj_size = new int[num_nodes];
+            degree = new int[num_nodes];
+            alias = new int[num_nodes];
+            cost = new double[num_nodes];
+            unspillable = new boolean[num_nodes];
+            for (int node = 0; node < num_nodes; node++) {
+                adj[node] = new int[4];
+                alias[node] = node;
+            }
+        }
+
+        int find(int node) {
+            while (alias[node] != node) {
+                node = alias[node];
+            }
+            return node;
+        }
+
+        private static int bit(int a, int b) {
+            return (a > b) ? a * (a - 1) / 2 + b : b * (b - 1) / 2 + a;
+        }
+
+        boolean interferes(int a, int b) {
+            return matrix.get(bit(a, b));
+        }
+
+        void addEdge(int a, int b) {
+            if (a == b || interferes(a, b)) {
+                return;
+            }
+            matrix.set(bit(a, b));
+            addToList(a, b);
+            addToList(b, a);
+        }
+
+        private void addToList(int node, int neighbor) {
+            if (adj_size[node] == adj[node].length) {
+                adj[node] = Arrays.copyOf(adj[node], 2 * adj_size[node]);
+            }
+            adj[node][adj_size[node]++] = neighbor;
+            degree[node]++;
+        }
+
+        // the neighbors that still stand for themselves
+        List<Integer> neighbors(int node) {
+            List<Integer> neighbors = new ArrayList<>();
+            for (int i = 0; i < adj_size[node]; i++) {
+                if (alias[adj[node][i]] == adj[node][i]) {
+                    neighbors.add(adj[node][i]);
+                }
+            }
+            return neighbors;
+        }
+    }
+
+    public String getName() {
+        return "chaitin";
+    }
+
+    public AllocationReport getReport() {
+        return report;
+    }
+
+    public List<MIPSInstruction> allocate(List<MIPSInstruction> code, List<IRInstruction> origins, Frame frame) {
+        AllocationReport.Record record = report.record(frame.function.name);
+        Set<String> spill_temps = new HashSet<>();
+        Graph graph;
+        while (true) {
+            graph = build(code, origins, frame.function, spill_temps);
+            coalesce(graph);
+            Set<Integer> spilled = color(graph);
+            if (spilled.isEmpty()) {
+                break;
+            }
+            // rewrite: spilled registers go through new temps at every def and use
+            Set<String> spilled_names = new HashSet<>();
+            for (int node = 0; node < graph.alias.length; node++) {
+                if (spilled.contains(graph.find(node))) {
+                    spilled_names.add(graph.cfg.reg_names.get(node));
+                }
+            }
+            record.spills += spilled_names.size();
+            List<MIPSInstruction> rewritten = new ArrayList<>();
+            List<IRInstruction> rewritten_origins = new ArrayList<>();
+            for (int i = 0; i < code.size(); i++) {
+                MIPSInstruction instruc = code.get(i);
+                List<MIPSInstruction> before = new ArrayList<>();
+                List<MIPSInstruction> after = new ArrayList<>();
+                Map<String, Register> map = new HashMap<>();
+                for (Register reg : RegisterAllocator.virtualReads(instruc)) {
+                    if (spilled_names.contains(reg.name)) {
+                        Register temp = spillTemp(reg, spill_temps);
+                        map.put(reg.name, temp);
+                        before.add(RegisterAllocator.load(temp, reg.name, frame));
+                    }
+                }
+                Register write = RegisterAllocator.virtualWrite(instruc);
+                if (write != null && spilled_names.contains(write.name)) {
+                    Register temp = map.computeIfAbsent(write.name, name -> spillTemp(write, spill_temps));
+                    after.add(RegisterAllocator.store(temp, write.name, frame));
+                }
+                for (MIPSInstruction load : before) {
+                    rewritten.add(load);
+                    rewritten_origins.add(origins.get(i));
+                }
+                rewritten.add(RegisterAllocator.rewrite(instruc, map));
+                rewritten_origins.add(origins.get(i));
+                for (MIPSInstruction store : after) {
+                    rewritten.add(store);
+                    rewritten_origins.add(origins.get(i));
+                }
+                record.loads += before.size();
+                record.stores += after.size();
+            }
+            code = rewritten;
+            origins = rewritten_origins;
+        }
+
+        // everything has a color: rename and drop the moves coalescing made into move $tN, $tN
+        Map<String, Register> map = new HashMap<>();
+        for (int node = 0; node < graph.alias.length; node++) {
+            map.put(graph.cfg.reg_names.get(node), GreedyAllocator.REGISTERS[graph.color[graph.find(node)]]);
+        }
+        for (int[] move : graph.moves) {
+            if (graph.find(move[0]) == graph.find(move[1])) {
+                record.coalesced++;
+            }
+        }
+        List<MIPSInstruction> allocated = new ArrayList<>();
+        for (MIPSInstruction instruc : code) {
+            MIPSInstruction renamed = RegisterAllocator.rewrite(instruc, map);
+            if (renamed.op != MIPSOp.MOVE || !renamed.operands.get(0).equals(renamed.operands.get(1))) {
+                allocated.add(renamed);
+            }
+        }
+        record.finish(allocated);
+        return allocated;
+    }
+
+    private static Register spillTemp(Register spilled, Set<String> spill_temps) {
+        Register temp = new Register(spilled.name + "." + spill_temps.size());
+        spill_temps.add(temp.name);
+        return temp;
+    }
+
+    // what one def/use at an instruction from origin counts for
+    private double weight(IRFunction function, IRInstruction origin, int loop_depth) {
+        if (profile == null) {
+            return LoopForest.spillCostWeight(loop_depth);
+        }
+        if (origin == null) { // (the entry code, it runs once per call)
+            long entry = profile.entryCount(function);
+            return (entry >= 0) ? entry : LoopForest.spillCostWeight(loop_depth);
+        }
+        return profile.spillWeight(function, origin, loop_depth);
+    }
+
+    private Graph build(List<MIPSInstruction> code, List<IRInstruction> origins, IRFunction function, Set<String> spill_temps) {
+        MIPScfg cfg = new MIPScfg(code);
+        cfg.computeLoopDepths();
+        Graph graph = new Graph(cfg);
+        for (int node = 0; node < graph.num_nodes; node++) {
+            graph.unspillable[node] = spill_temps.contains(cfg.reg_names.get(node));
+        }
+        for (MIPScfg.Block block : graph.cfg.blocks) {
+            BitSet live = (BitSet) block.live_out.clone();
+            for (int i = block.end - 1; i >= block.start; i--) {
+                MIPSInstruction instruc = code.get(i);
+                double weight = weight(function, origins.get(i), block.loop_depth);
+                Register write = RegisterAllocator.virtualWrite(instruc);
+                if (write != null) {
+                    int def = graph.cfg.regId(write);
+                    int source = -1;
+                    if (instruc.op == MIPSOp.MOVE && ((Register) instruc.operands.get(1)).isVirtual) {
+                        source = graph.cfg.regId((Register) instruc.operands.get(1));
+                        graph.moves.add(new int[] { def, source });
+                    }
+                    for (int other = live.nextSetBit(0); other >= 0; other = live.nextSetBit(other + 1)) {
+                        if (other != source) {
+                            graph.addEdge(def, other);
+                        }
+                    }
+                    live.clear(def);
+                    graph.cost[def] += weight;
+                }
+                for (Register reg : RegisterAllocator.virtualReads(instruc)) {
+                    live.set(graph.cfg.regId(reg));
+                    graph.cost[graph.cfg.regId(reg)] += weight;
+                }
+            }
+        }
+        return graph;
+    }
+
+    // conservative coalescing, Briggs or George, until no move can go
+        // (spill temps are left alone, merging one would make whatever it merges with unspillable too)
+    private static void coalesce(Graph graph) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int[] move : graph.moves) {
+                int a = graph.find(move[0]);
+                int b = graph.find(move[1]);
+                if (a == b || graph.unspillable[a] || graph.unspillable[b] || graph.interferes(a, b)) {
+                    continue;
+                }
+                if (briggs(graph, a, b) || george(graph, a, b) || george(graph, b, a)) {
+                    graph.alias[b] = a;
+                    for (int neighbor : graph.neighbors(b)) {
+                        graph.degree[neighbor]--; // (b goes away, the edge to a is new unless it was there already)
+                        graph.addEdge(a, neighbor);
+                    }
+                    graph.cost[a] += graph.cost[b];
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Briggs: a and b merged would have fewer than K neighbors of significant degree
+    private static boolean briggs(Graph graph, int a, int b) {
+        Set<Integer> neighbors = new HashSet<>(graph.neighbors(a));
+        neighbors.addAll(graph.neighbors(b));
+        int significant = 0;
+        for (int neighbor : neighbors) {
+            boolean both = graph.interferes(neighbor, a) && graph.interferes(neighbor, b); // (the two become one neighbor)
+            if (graph.degree[neighbor] - (both ? 1 : 0) >= K) {
+                significant++;
+            }
+        }
+        return significant < K;
+    }
+
+    // George: every neighbor of b already interferes with a or has insignificant degree, so b can go into a
+    private static boolean george(Graph graph, int a, int b) {
+        for (int neighbor : graph.neighbors(b)) {
+            if (graph.degree[neighbor] >= K && !graph.interferes(neighbor, a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // simplify then select, the nodes (that stand for themselves) that found no color
+    private static Set<Integer> color(Graph graph) {
+        int num_nodes = graph.num_nodes;
+        int[] degree = new int[num_nodes];
+        boolean[] removed = new boolean[num_nodes];
+        Deque<Integer> low = new ArrayDeque<>(); // degree < K, can go without thinking
+        int remaining = 0;
+        for (int node = 0; node < num_nodes; node++) {
+            if (graph.alias[node] != node) {
+                removed[node] = true;
+                continue;
+            }
+            degree[node] = graph.degree[node];
+            remaining++;
+            if (degree[node] < K) {
+                low.push(node);
+            }
+        }
+        Deque<Integer> stack = new ArrayDeque<>();
+        while (remaining > 0) {
+            int node = -1;
+            while (!low.isEmpty() && node < 0) {
+                node = low.pop();
+                node = removed[node] ? -1 : node;
+            }
+            if (node < 0) {
+                // blocked: the cheapest per degree goes on the stack anyway (spill temps only if nothing else is left)
+                double best = Double.MAX_VALUE;
+                for (int candidate = 0; candidate < num_nodes; candidate++) {
+                    if (removed[candidate]) {
+                        continue;
+                    }
+                    double score = graph.unspillable[candidate] ? Double.MAX_VALUE / 2 : graph.cost[candidate] / degree[candidate];
+                    if (node < 0 || score < best) {
+                        node = candidate;
+                        best = score;
+                    }
+                }
+            }
+            removed[node] = true;
+            remaining--;
+            stack.push(node);
+            for (int neighbor : graph.neighbors(node)) {
+                if (!removed[neighbor] && --degree[neighbor] == K - 1) {
+                    low.push(neighbor);
+                }
+            }
+        }
+        graph.color = new int[num_nodes];
+        Arrays.fill(graph.color, -1);
+        Set<Integer> spilled = new HashSet<>();
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            boolean[] taken = new boolean[K];
+            for (int neighbor : graph.neighbors(node)) {
+                if (graph.color[neighbor] >= 0) {
+                    taken[graph.color[neighbor]] = true;
+                }
+            }
+            graph.color[node] = -1;
+            for (int color = 0; color < K && graph.color[node] < 0; color++) {
+                if (!taken[color]) {
+                    graph.color[node] = color;
+                }
+            }
+            if (graph.color[node] < 0) {
+                spilled.add(node);
+            }
+        }
+        return spilled;
+    }
+}
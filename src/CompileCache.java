@@ -0,0 +1,309 @@
+import ir.IRException;
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRPrinter;
+import ir.IRProgram;
+import ir.IRReader;
+import ir.operand.IRVariableOperand;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.Imm;
+import main.java.mips.operand.MIPSOperand;
+import main.java.mips.operand.Register;
+
+public class CompileCache {
+    // On-disk cache of what the backend made of each function: its optimized IR and its selected MIPS
+    // (Demo ... --cache <dir>), so after editing one function of a big .ir file only that function and
+    // the ones that call it get recompiled
+        // key of a function = hash of
+        //      its text as parsed (line numbers relative to its first instruction, so a function that only
+        //      moved in the file is still a hit, the cached line numbers get shifted to where it is now)
+        //      its profile counts (if there is a profile), the -O level and the register allocator
+        //      the compiler itself: every class file it was loaded from, so a changed pass or selector makes
+        //      everything built before it a miss
+        //      the keys of everything it calls: inlining copies callee bodies and DCE/LICM go by the callees'
+        //      side effect summaries, so a changed callee has to dirty its callers (recursive functions are
+        //      hashed together with the rest of their SCC)
+        // everything a pass does to a function depends only on those, so the cached output is exactly what
+        // a clean build makes
+        // program passes (inlining, side effect summaries) still run over the whole program, they decide
+        // which functions are left, a hit just skips the function passes and instruction selection
+        // <dir>/<key>.ir: variable order, instruction line numbers, the function as IRPrinter prints it
+        // <dir>/<key>.s: the finished function (allocated, with its prologue), one MIPS instruction per line,
+        //               fields separated by tabs ("-" for a line number the selector skipped without putting
+        //               anything there, so the numbering stays the same)
+    private static final String COMPILER = compilerFingerprint();
+
+    private File dir;
+    private Map<IRFunction, String> keys = new HashMap<>();
+    private Map<IRFunction, Integer> base_lines = new HashMap<>();
+    public int hits = 0;
+    public int misses = 0;
+
+    // keys are computed here, on the program as parsed (before any pass runs)
+    public CompileCache(String dir_name, IRProgram program, int opt_level, ExecutionProfile profile, RegisterAllocator allocator) {
+        dir = new File(dir_name);
+        dir.mkdirs();
+        CallGraph call_graph = new CallGraph(program);
+        Map<List<IRFunction>, String> scc_keys = new HashMap<>();
+        for (List<IRFunction> scc : call_graph.sccs) { // bottom-up, callees are done first
+            StringBuilder text = new StringBuilder(COMPILER + "\n-O" + opt_level + "\n" + ((allocator == null) ? "-" : allocator.getName()) + "\n");
+            List<IRFunction> members = new ArrayList<>(scc);
+            members.sort((a, b) -> a.name.compareTo(b.name));
+            TreeSet<String> callee_keys = new TreeSet<>();
+            for (IRFunction function : members) {
+                int base_line = baseLine(function);
+                base_lines.put(function, base_line);
+                text.append(functionText(function, base_line));
+                if (profile != null) {
+                    text.append(profile.fingerprint(function.name, base_line));
+                }
+                for (CallGraph.CallSite site : call_graph.calls_from.get(function)) {
+                    List<IRFunction> callee_scc = call_graph.sccOf(site.callee);
+                    if (callee_scc != scc) {
+                        callee_keys.add(scc_keys.get(callee_scc));
+                    }
+                }
+            }
+            text.append(String.join("\n", callee_keys));
+            String scc_key = hash(text.toString());
+            scc_keys.put(scc, scc_key);
+            for (IRFunction function : scc) {
+                keys.put(function, hash(scc_key + "\n" + function.name));
+            }
+        }
+    }
+
+    private static int baseLine(IRFunction function) {
+        return function.instructions.isEmpty() ? 0 : function.instructions.get(0).irLineNumber;
+    }
+
+    private static String functionText(IRFunction function, int base_line) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new IRPrinter(new PrintStream(bytes)).printFunction(function);
+        StringBuilder text = new StringBuilder(bytes.toString());
+        for (IRInstruction instruc : function.instructions) {
+            text.append(instruc.irLineNumber - base_line).append(' ');
+        }
+        return text.append('\n').toString();
+    }
+
+    private static String hash(String text) {
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // hash of the class files of the backend and of the MIPS classes it prints with (a build dir, or a jar)
+        // if we can not find them there is nothing to tell two compilers apart, so every run gets its own
+    private static String compilerFingerprint() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            TreeSet<Path> roots = new TreeSet<>();
+            for (Class<?> loaded : List.of(CompileCache.class, MIPSInstruction.class)) {
+                CodeSource source = loaded.getProtectionDomain().getCodeSource();
+                if (source == null) {
+                    return "unknown " + System.nanoTime();
+                }
+                roots.add(Paths.get(source.getLocation().toURI()));
+            }
+            for (Path root : roots) {
+                List<Path> files = List.of(root);
+                if (Files.isDirectory(root)) {
+                    try (Stream<Path> walk = Files.walk(root)) {
+                        files = walk.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+                    }
+                }
+                for (Path file : files) {
+                    digest.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+            }
+            return hex(digest.digest());
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException e) {
+            return "unknown " + System.nanoTime();
+        }
+    }
+
+    private File irFile(IRFunction function) {
+        return new File(dir, keys.get(function) + ".ir");
+    }
+
+    private File mipsFile(IRFunction function) {
+        return new File(dir, keys.get(function) + ".s");
+    }
+
+    // true if the function was in the program we computed keys for and we have both of its outputs
+    public boolean has(IRFunction function) {
+        return keys.containsKey(function) && irFile(function).exists() && mipsFile(function).exists();
+    }
+
+    // Puts the cached optimized IR into function (what the function passes and instruction selection would leave)
+    public void restoreIR(IRFunction function) throws IOException, IRException {
+        List<String> lines = Files.readAllLines(irFile(function).toPath());
+        List<String> var_order = Arrays.asList(lines.get(0).trim().split("\\s+"));
+        String[] relative_lines = lines.get(1).trim().split("\\s+");
+        List<String> function_lines = lines.subList(2, lines.size());
+        // 4 header lines (#start_function, signature, int-list, float-list), then one line per instruction
+        List<Integer> line_numbers = new ArrayList<>();
+        for (int i = 0; i < function_lines.size(); i++) {
+            int instruc_index = i - 4;
+            boolean is_instruc = instruc_index >= 0 && instruc_index < relative_lines.length && !relative_lines[0].isEmpty();
+            line_numbers.add(is_instruc ? base_lines.get(function) + Integer.parseInt(relative_lines[instruc_index]) : 0);
+        }
+        IRFunction cached = new IRReader().parseFunctionText(function_lines, line_numbers);
+
+        // the reader hands the variables back in hash order, put them back the way the passes left them
+        Map<String, IRVariableOperand> by_name = new HashMap<>();
+        for (IRVariableOperand var : cached.variables) {
+            by_name.put(var.getName(), var);
+        }
+        List<IRVariableOperand> variables = new ArrayList<>();
+        for (String name : var_order) {
+            if (by_name.containsKey(name)) {
+                variables.add(by_name.get(name));
+            }
+        }
+        function.parameters = cached.parameters;
+        function.variables = variables;
+        function.instructions = cached.instructions;
+        hits++;
+    }
+
+    // the code in line number order, null where the selector left a line number empty
+    public List<MIPSInstruction> loadMips(IRFunction function) throws IOException {
+        List<MIPSInstruction> code = new ArrayList<>();
+        for (String line : Files.readAllLines(mipsFile(function).toPath())) {
+            if (line.equals("-")) {
+                code.add(null);
+                continue;
+            }
+            String[] fields = line.split("\t");
+            List<MIPSOperand> operands = new ArrayList<>();
+            int i = 2;
+            while (i < fields.length) {
+                switch (fields[i]) {
+                    case "R" -> {
+                        operands.add(new Register(fields[i + 1], fields[i + 2].equals("v")));
+                        i += 3;
+                    }
+                    case "I" -> {
+                        operands.add(immediate(fields[i + 1]));
+                        i += 2;
+                    }
+                    case "L" -> {
+                        operands.add(new Addr(fields[i + 1]));
+                        i += 2;
+                    }
+                    case "A" -> {
+                        operands.add(new Addr(new Register(fields[i + 1], fields[i + 2].equals("v"))));
+                        i += 3;
+                    }
+                    default -> { // "B": base + offset
+                        operands.add(new Addr(immediate(fields[i + 1]), new Register(fields[i + 2], fields[i + 3].equals("v"))));
+                        i += 4;
+                    }
+                }
+            }
+            String label = fields[1].equals("-") ? null : fields[1];
+            code.add(new MIPSInstruction(MIPSOp.valueOf(fields[0]), label, operands.toArray(new MIPSOperand[0])));
+        }
+        return code;
+    }
+
+    // the selector only makes DEC and HEX immediates
+    private static Imm immediate(String value) {
+        return new Imm(value, value.startsWith("0x") ? "HEX" : "DEC");
+    }
+
+    // Saves what the function passes and instruction selection made of function (code = its MIPS, in line
+    // number order with null for the numbers the selector skipped)
+    public void store(IRFunction function, List<MIPSInstruction> code) throws IOException {
+        misses++;
+        if (!keys.containsKey(function)) {
+            return;
+        }
+        List<String> var_names = new ArrayList<>();
+        for (IRVariableOperand var : function.variables) {
+            var_names.add(var.getName());
+        }
+        int base_line = base_lines.get(function);
+        StringBuilder line_numbers = new StringBuilder();
+        for (IRInstruction instruc : function.instructions) {
+            line_numbers.append(instruc.irLineNumber - base_line).append(' ');
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new IRPrinter(new PrintStream(bytes)).printFunction(function);
+        Files.writeString(irFile(function).toPath(), String.join(" ", var_names) + "\n" + line_numbers + "\n" + bytes);
+
+        StringBuilder mips = new StringBuilder();
+        for (MIPSInstruction instruc : code) {
+            if (instruc == null) {
+                mips.append("-\n");
+                continue;
+            }
+            mips.append(instruc.op.name()).append('\t').append((instruc.label == null) ? "-" : instruc.label);
+            for (MIPSOperand operand : instruc.operands) {
+                mips.append('\t').append(encode(operand));
+            }
+            mips.append('\n');
+        }
+        Files.writeString(mipsFile(function).toPath(), mips.toString());
+    }
+
+    private static String encode(MIPSOperand operand) {
+        if (operand instanceof Register) {
+            return "R\t" + encode((Register) operand);
+        }
+        if (operand instanceof Imm) {
+            return "I\t" + operand;
+        }
+        Addr addr = (Addr) operand;
+        switch (addr.mode) {
+            case PC_RELATIVE -> {
+                return "L\t" + addr.label;
+            }
+            case REGISTER -> {
+                return "A\t" + encode(addr.register);
+            }
+            default -> {
+                return "B\t" + addr.constant + "\t" + encode(addr.register);
+            }
+        }
+    }
+
+    private static String encode(Register register) {
+        return register.name + "\t" + (register.isVirtual ? "v" : "p");
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ControlDependence {
+    // n is control dependent on branch b if one way out of b always gets to n and the other can skip it
+    // (Cytron et al: for every edge a -> s where s does not post-dominate a, everything on the
+    //  post-dominator tree path from s up to, not including, ipdom(a) is control dependent on a)
+    public Map<IRNode, List<IRNode>> depends_on = new HashMap<>();
+
+    public ControlDependence(IRcfg cfg, PostDominatorTree pdom) {
+        for (IRNode node : cfg.nodes) {
+            depends_on.put(node, new ArrayList<>());
+        }
+        for (IRNode a : cfg.nodes) {
+            if (!pdom.reachesExit(a)) {
+                continue;
+            }
+            IRNode stop = pdom.ipdom(a); // null is the virtual exit
+            for (IRNode succ : a.successors()) {
+                if (!pdom.reachesExit(succ) || pdom.postDominates(succ, a)) {
+                    continue;
+                }
+                IRNode runner = succ;
+                while (runner != null && runner != stop) {
+                    if (!depends_on.get(runner).contains(a)) {
+                        depends_on.get(runner).add(a);
+                    }
+                    runner = pdom.ipdom(runner);
+                }
+            }
+        }
+    }
+
+    public List<IRNode> branchesControlling(IRNode node) {
+        return depends_on.get(node);
+    }
+}
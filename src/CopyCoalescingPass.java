@@ -0,0 +1,171 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CopyCoalescingPass implements FunctionPass {
+    // Move coalescing on the IR vars (every scalar var becomes one virtual register in the selector,
+    // so merging two vars here is the same as coalescing their registers before allocation)
+        // x and y interfere if one is defined while the other is live (Chaitin: at a def of d, d interferes
+        // with everything live out, except s when the def is the copy d = s)
+        // for every assign, x, y left after copy propagation: if x and y do not interfere, rename x to y
+        // everywhere and drop the (now assign, y, y) copy
+        // NOTE: whatever is live into the function holds a param or the 0 every var starts as, so those
+        //       all interfere with each other
+    public String getName() {
+        return "coalesce";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    // var -> the var it got merged into (follow until a var maps to itself)
+    private Map<String, String> merged_into;
+    private Map<String, Set<String>> interference;
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        IRcfg cfg = cache.get(function, Analyses.CFG);
+        if (cfg.nodes.isEmpty()) {
+            return false;
+        }
+        Liveness liveness = cache.get(function, Analyses.LIVENESS);
+        buildInterference(function, cfg, liveness);
+
+        Map<String, IRVariableOperand> var_info = new HashMap<>();
+        for (IRVariableOperand var : function.variables) {
+            var_info.put(var.getName(), var);
+        }
+        for (IRVariableOperand param : function.parameters) {
+            var_info.put(param.getName(), param);
+        }
+
+        merged_into = new HashMap<>();
+        boolean merged_any = false;
+        for (IRNode node : cfg.nodes) {
+            if (!isScalarCopy(node.instruction)) {
+                continue;
+            }
+            String x = find(((IRVariableOperand) node.instruction.operands[0]).getName());
+            String y = find(((IRVariableOperand) node.instruction.operands[1]).getName());
+            if (x.equals(y) || interferes(x, y)) {
+                continue;
+            }
+            if (!var_info.containsKey(x) || !var_info.containsKey(y)
+                    || !var_info.get(x).type.equals(var_info.get(y).type)) {
+                continue;
+            }
+            // params keep their names (the caller binds them by position)
+            boolean x_param = ArrayAlias.isParameter(function, x);
+            boolean y_param = ArrayAlias.isParameter(function, y);
+            if (x_param && y_param) {
+                continue;
+            }
+            if (x_param) {
+                merge(y, x);
+            } else {
+                merge(x, y);
+            }
+            merged_any = true;
+        }
+        if (!merged_any) {
+            return false;
+        }
+
+        // rename, then the copies between merged vars are just assign, v, v
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        for (IRInstruction instruc : function.instructions) {
+            for (int i = 0; i < instruc.operands.length; i++) {
+                IROperand operand = instruc.operands[i];
+                if (operand instanceof IRVariableOperand) {
+                    IRVariableOperand var = (IRVariableOperand) operand;
+                    String rep = find(var.getName());
+                    if (!rep.equals(var.getName())) {
+                        instruc.operands[i] = new IRVariableOperand(var.type, rep, instruc);
+                    }
+                }
+            }
+            if (isScalarCopy(instruc) && ((IRVariableOperand) instruc.operands[0]).getName()
+                    .equals(((IRVariableOperand) instruc.operands[1]).getName())) {
+                continue;
+            }
+            new_instructions.add(instruc);
+        }
+        function.instructions = new_instructions;
+
+        List<IRVariableOperand> new_variables = new ArrayList<>();
+        for (IRVariableOperand var : function.variables) {
+            if (find(var.getName()).equals(var.getName())) {
+                new_variables.add(var);
+            }
+        }
+        function.variables = new_variables;
+        return true;
+    }
+
+    private void buildInterference(IRFunction function, IRcfg cfg, Liveness liveness) {
+        interference = new HashMap<>();
+        for (IRNode node : cfg.nodes) {
+            String defined = node.definedVar();
+            if (defined == null || node.instruction.opCode == IRInstruction.OpCode.ASSIGN && node.instruction.operands.length > 2) {
+                continue;
+            }
+            String copy_source = isScalarCopy(node.instruction) ? ((IRVariableOperand) node.instruction.operands[1]).getName() : null;
+            for (String live : liveness.liveOut(node)) {
+                if (!live.equals(defined) && !live.equals(copy_source)) {
+                    addEdge(defined, live);
+                }
+            }
+        }
+        List<String> live_at_entry = new ArrayList<>(liveness.liveIn(cfg.nodes.get(0)));
+        for (int i = 0; i < live_at_entry.size(); i++) {
+            for (int j = i + 1; j < live_at_entry.size(); j++) {
+                addEdge(live_at_entry.get(i), live_at_entry.get(j));
+            }
+        }
+    }
+
+    private void addEdge(String a, String b) {
+        interference.computeIfAbsent(a, k -> new HashSet<>()).add(b);
+        interference.computeIfAbsent(b, k -> new HashSet<>()).add(a);
+    }
+
+    private boolean interferes(String a, String b) {
+        return interference.getOrDefault(a, Set.of()).contains(b);
+    }
+
+    private String find(String var) {
+        String rep = var;
+        while (merged_into.containsKey(rep)) {
+            rep = merged_into.get(rep);
+        }
+        return rep;
+    }
+
+    // from goes away, into picks up its interference edges
+    private void merge(String from, String into) {
+        merged_into.put(from, into);
+        Set<String> from_edges = interference.remove(from);
+        if (from_edges == null) {
+            return;
+        }
+        for (String neighbour : from_edges) {
+            Set<String> neighbour_edges = interference.get(neighbour);
+            neighbour_edges.remove(from);
+            addEdge(into, neighbour);
+        }
+    }
+
+    private static boolean isScalarCopy(IRInstruction instruc) {
+        return instruc.opCode == IRInstruction.OpCode.ASSIGN && instruc.operands.length == 2
+                && instruc.operands[1] instanceof IRVariableOperand
+                && !(((IRVariableOperand) instruc.operands[1]).type instanceof IRArrayType);
+    }
+}
@@ -0,0 +1,191 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CopyPropagationPass implements FunctionPass {
+    // Global copy propagation with "available copies" (forward, must dataflow over the instruction CFG)
+        // GEN[n]  = { x = y }               if n is assign, x, y (y a scalar var)
+        // KILL[n] = every copy that mentions the var n defines
+        // IN[n]   = intersection of OUT[p] over the predecessors (empty at the entry)
+        // OUT[n]  = GEN[n] U (IN[n] - KILL[n])
+    // if x = y is available where x is used we use y instead, the copy usually ends up dead and DCE removes it
+    public String getName() {
+        return "copy-prop";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        boolean changed = false;
+        // y might itself be a copy of z, so go again until nothing changes (each round shortens a chain)
+        int max_rounds = 10;
+        while (max_rounds-- > 0 && propagateOnce(function, cache)) {
+            cache.invalidateAll(function);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean propagateOnce(IRFunction function, AnalysisCache cache) {
+        IRcfg cfg = cache.get(function, Analyses.CFG);
+        DominatorTree dom = cache.get(function, Analyses.DOMINATORS);
+        if (cfg.nodes.isEmpty()) {
+            return false;
+        }
+
+        // every copy in the function (var name -> copies that mention it, for KILL)
+        List<IRNode> copies = new ArrayList<>();
+        Map<String, List<IRNode>> copies_of_var = new HashMap<>();
+        for (IRNode node : cfg.nodes) {
+            if (isCopy(node.instruction)) {
+                copies.add(node);
+                copies_of_var.computeIfAbsent(copyDest(node), k -> new ArrayList<>()).add(node);
+                copies_of_var.computeIfAbsent(copySource(node), k -> new ArrayList<>()).add(node);
+            }
+        }
+        if (copies.isEmpty()) {
+            return false;
+        }
+
+        // must analysis: start everything (but the entry) at "all copies" and shrink
+        Map<IRNode, Set<IRNode>> in = new HashMap<>();
+        Map<IRNode, Set<IRNode>> out = new HashMap<>();
+        Set<IRNode> all_copies = new HashSet<>(copies);
+        for (IRNode node : cfg.nodes) {
+            out.put(node, new HashSet<>(all_copies));
+        }
+        IRNode entry = cfg.nodes.get(0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRNode node : dom.reverse_postorder) { // unreachable nodes do not matter
+                Set<IRNode> new_in;
+                if (node == entry) {
+                    new_in = new HashSet<>();
+                } else {
+                    new_in = null;
+                    for (IRNode pred : node.predecessors()) {
+                        if (!dom.isReachable(pred)) {
+                            continue;
+                        }
+                        if (new_in == null) {
+                            new_in = new HashSet<>(out.get(pred));
+                        } else {
+                            new_in.retainAll(out.get(pred));
+                        }
+                    }
+                    if (new_in == null) {
+                        new_in = new HashSet<>();
+                    }
+                }
+                in.put(node, new_in);
+
+                Set<IRNode> new_out = new HashSet<>(new_in);
+                String defined = definedScalar(node);
+                if (defined != null) {
+                    new_out.removeAll(copies_of_var.getOrDefault(defined, List.of()));
+                }
+                if (isCopy(node.instruction)) {
+                    new_out.add(node);
+                }
+                if (!new_out.equals(out.get(node))) {
+                    out.put(node, new_out);
+                    changed = true;
+                }
+            }
+        }
+
+        // rewrite the uses
+        boolean rewrote = false;
+        for (IRNode node : dom.reverse_postorder) {
+            Map<String, IRVariableOperand> replacement = new HashMap<>();
+            for (IRNode copy : in.get(node)) {
+                IRVariableOperand src = (IRVariableOperand) copy.instruction.operands[1];
+                replacement.put(copyDest(copy), src);
+            }
+            if (replacement.isEmpty()) {
+                continue;
+            }
+            IRInstruction instruc = node.instruction;
+            for (int i : useIndexes(instruc)) {
+                IROperand operand = instruc.operands[i];
+                if (operand instanceof IRVariableOperand) {
+                    IRVariableOperand src = replacement.get(((IRVariableOperand) operand).getName());
+                    if (src != null) {
+                        instruc.operands[i] = new IRVariableOperand(src.type, src.getName(), instruc);
+                        rewrote = true;
+                    }
+                }
+            }
+        }
+        return rewrote;
+    }
+
+    private static boolean isCopy(IRInstruction instruc) {
+        return instruc.opCode == IRInstruction.OpCode.ASSIGN && instruc.operands.length == 2
+                && instruc.operands[1] instanceof IRVariableOperand
+                && !(((IRVariableOperand) instruc.operands[1]).type instanceof IRArrayType)
+                && !((IRVariableOperand) instruc.operands[0]).getName().equals(((IRVariableOperand) instruc.operands[1]).getName());
+    }
+
+    private static String copyDest(IRNode copy) {
+        return ((IRVariableOperand) copy.instruction.operands[0]).getName();
+    }
+
+    private static String copySource(IRNode copy) {
+        return ((IRVariableOperand) copy.instruction.operands[1]).getName();
+    }
+
+    // the scalar a node overwrites (array inits and stores do not change which array a var names)
+    private static String definedScalar(IRNode node) {
+        if (node.instruction.opCode == IRInstruction.OpCode.ASSIGN && node.instruction.operands.length > 2) {
+            return null;
+        }
+        return node.definedVar();
+    }
+
+    // operand positions that are reads of a scalar value
+    public static List<Integer> useIndexes(IRInstruction instruc) {
+        List<Integer> indexes = new ArrayList<>();
+        switch (instruc.opCode) {
+            case ASSIGN -> {
+                for (int i = 1; i < instruc.operands.length; i++) {
+                    indexes.add(i);
+                }
+            }
+            case ADD, SUB, MULT, DIV, AND, OR, BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                indexes.add(1);
+                indexes.add(2);
+            }
+            case ARRAY_STORE -> {
+                indexes.add(0);
+                indexes.add(2);
+            }
+            case ARRAY_LOAD -> indexes.add(2);
+            case RETURN -> indexes.add(0);
+            case CALL, CALLR -> {
+                int first_arg = (instruc.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+                for (int i = first_arg; i < instruc.operands.length; i++) {
+                    if (!(instruc.operands[i] instanceof IRVariableOperand
+                            && ((IRVariableOperand) instruc.operands[i]).type instanceof IRArrayType)) {
+                        indexes.add(i);
+                    }
+                }
+            }
+            default -> {
+                break;
+            }
+        }
+        return indexes;
+    }
+}
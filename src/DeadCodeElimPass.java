@@ -0,0 +1,21 @@
+import ir.IRFunction;
+import java.util.Set;
+
+public class DeadCodeElimPass implements FunctionPass {
+    // Mark and sweep DCE over the reaching definitions (see Demo.markAlg / Demo.sweepAlg)
+    public String getName() {
+        return "dce";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        ReachingDefs defs = cache.get(function, Analyses.REACHING_DEFS);
+        int instrucs_before = function.instructions.size();
+        Demo.markAlg(defs, (SideEffects) cache.getProgramResult(SideEffects.NAME));
+        Demo.sweepAlg(defs.cfg, function);
+        return function.instructions.size() != instrucs_before;
+    }
+}
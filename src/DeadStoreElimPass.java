@@ -0,0 +1,181 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DeadStoreElimPass implements FunctionPass {
+    // Removes stores into local arrays nobody reads afterwards, then drops vars nothing mentions anymore
+        // array liveness: backward "may" dataflow over the local (non parameter) arrays
+        //      use[n]  = A if n loads from A, or passes A to a call (the callee can read it, A escapes there)
+        //      kill[n] = A if n is assign, A, size, v covering the whole array
+        //      live_in[n] = use[n] U (live_out[n] - kill[n]),  live_out[n] = U live_in[s]
+        // array_store, v, A, i / assign, A, size, v with A not live out is dead (parameter arrays are
+        // always live, the caller can look at them)
+        // the vars (not params) no instruction uses are removed from function.variables afterwards so
+        // the Frame does not make room for them
+    public String getName() {
+        return "dse";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        boolean changed = false;
+        if (!function.instructions.isEmpty()) {
+            changed = removeDeadStores(function, cache.get(function, Analyses.CFG));
+        }
+        changed |= removeUnusedVariables(function);
+        return changed;
+    }
+
+    private static Set<String> localArrays(IRFunction function) {
+        Set<String> arrays = new HashSet<>();
+        for (IRVariableOperand var : function.variables) {
+            if (var.type instanceof IRArrayType && !ArrayAlias.isParameter(function, var.getName())) {
+                arrays.add(var.getName());
+            }
+        }
+        return arrays;
+    }
+
+    private boolean removeDeadStores(IRFunction function, IRcfg cfg) {
+        Set<String> local_arrays = localArrays(function);
+        if (local_arrays.isEmpty()) {
+            return false;
+        }
+        Map<String, Integer> array_sizes = new HashMap<>();
+        for (IRVariableOperand var : function.variables) {
+            if (local_arrays.contains(var.getName())) {
+                array_sizes.put(var.getName(), ((IRArrayType) var.type).getSize());
+            }
+        }
+
+        Map<IRNode, Set<String>> live_in = new HashMap<>();
+        Map<IRNode, Set<String>> live_out = new HashMap<>();
+        for (IRNode node : cfg.nodes) {
+            live_in.put(node, new HashSet<>());
+            live_out.put(node, new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = cfg.nodes.size() - 1; i >= 0; i--) {
+                IRNode node = cfg.nodes.get(i);
+                Set<String> new_out = new HashSet<>();
+                for (IRNode succ : node.successors()) {
+                    new_out.addAll(live_in.get(succ));
+                }
+                Set<String> new_in = new HashSet<>(new_out);
+                String killed = fullInitOf(node.instruction, array_sizes);
+                if (killed != null) {
+                    new_in.remove(killed);
+                }
+                for (String array : arrayUses(node.instruction)) {
+                    if (local_arrays.contains(array)) {
+                        new_in.add(array);
+                    }
+                }
+                if (!new_out.equals(live_out.get(node)) || !new_in.equals(live_in.get(node))) {
+                    live_out.put(node, new_out);
+                    live_in.put(node, new_in);
+                    changed = true;
+                }
+            }
+        }
+
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        boolean removed = false;
+        for (IRNode node : cfg.nodes) {
+            String written = arrayWritten(node.instruction);
+            if (written != null && local_arrays.contains(written) && !live_out.get(node).contains(written)) {
+                removed = true;
+                continue;
+            }
+            new_instructions.add(node.instruction);
+        }
+        if (removed) {
+            function.instructions = new_instructions;
+        }
+        return removed;
+    }
+
+    // arrays an instruction reads (or hands to a callee)
+    private static List<String> arrayUses(IRInstruction instruc) {
+        List<String> arrays = new ArrayList<>();
+        switch (instruc.opCode) {
+            case ARRAY_LOAD -> arrays.add(((IRVariableOperand) instruc.operands[1]).getName());
+            case CALL, CALLR -> {
+                for (IROperand operand : instruc.operands) {
+                    if (operand instanceof IRVariableOperand && ((IRVariableOperand) operand).type instanceof IRArrayType) {
+                        arrays.add(((IRVariableOperand) operand).getName());
+                    }
+                }
+            }
+            default -> {
+                break;
+            }
+        }
+        return arrays;
+    }
+
+    // the array an array_store or array init writes into (null for anything else)
+    private static String arrayWritten(IRInstruction instruc) {
+        if (instruc.opCode == IRInstruction.OpCode.ARRAY_STORE) {
+            return ((IRVariableOperand) instruc.operands[1]).getName();
+        }
+        if (instruc.opCode == IRInstruction.OpCode.ASSIGN && instruc.operands.length > 2) {
+            return ((IRVariableOperand) instruc.operands[0]).getName();
+        }
+        return null;
+    }
+
+    // the array if this is an init that overwrites every element of it
+    private static String fullInitOf(IRInstruction instruc, Map<String, Integer> array_sizes) {
+        if (instruc.opCode != IRInstruction.OpCode.ASSIGN || instruc.operands.length <= 2
+                || !(instruc.operands[1] instanceof IRConstantOperand)) {
+            return null;
+        }
+        String array = ((IRVariableOperand) instruc.operands[0]).getName();
+        Integer size = array_sizes.get(array);
+        if (size == null) {
+            return null;
+        }
+        try {
+            return (Integer.parseInt(((IRConstantOperand) instruc.operands[1]).getValueString()) >= size) ? array : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean removeUnusedVariables(IRFunction function) {
+        Set<String> used = new HashSet<>();
+        for (IRInstruction instruc : function.instructions) {
+            for (IROperand operand : instruc.operands) {
+                if (operand instanceof IRVariableOperand) {
+                    used.add(((IRVariableOperand) operand).getName());
+                }
+            }
+        }
+        List<IRVariableOperand> kept = new ArrayList<>();
+        for (IRVariableOperand var : function.variables) {
+            if (used.contains(var.getName()) || ArrayAlias.isParameter(function, var.getName())) {
+                kept.add(var);
+            }
+        }
+        if (kept.size() == function.variables.size()) {
+            return false;
+        }
+        function.variables = kept;
+        return true;
+    }
+}
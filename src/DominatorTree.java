@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DominatorTree {
+    // Dominators over the instruction level CFG using the iterative algorithm from
+    // Cooper, Harvey and Kennedy ("A Simple, Fast Dominance Algorithm")
+        // idom[entry] = entry, nodes that cannot be reached from the entry are not in idom at all
+    public IRNode entry;
+    public Map<IRNode, IRNode> idom = new HashMap<>();
+    public Map<IRNode, List<IRNode>> children = new HashMap<>();
+    public List<IRNode> reverse_postorder = new ArrayList<>();
+    private Map<IRNode, Integer> rpo_number = new HashMap<>();
+
+    public DominatorTree(IRcfg cfg) {
+        if (cfg.nodes.isEmpty()) {
+            return;
+        }
+        entry = cfg.nodes.get(0);
+        computeReversePostorder();
+
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRNode node : reverse_postorder) {
+                if (node == entry) {
+                    continue;
+                }
+                IRNode new_idom = null;
+                for (IRNode pred : node.predecessors()) {
+                    if (!idom.containsKey(pred)) { // not processed yet (or unreachable)
+                        continue;
+                    }
+                    new_idom = (new_idom == null) ? pred : intersect(pred, new_idom);
+                }
+                if (new_idom != null && idom.get(node) != new_idom) {
+                    idom.put(node, new_idom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (IRNode node : reverse_postorder) {
+            children.put(node, new ArrayList<>());
+        }
+        for (IRNode node : reverse_postorder) {
+            if (node != entry) {
+                children.get(idom.get(node)).add(node);
+            }
+        }
+    }
+
+    private void computeReversePostorder() {
+        // iterative DFS so huge functions do not blow the java stack
+        List<IRNode> postorder = new ArrayList<>();
+        Set<IRNode> visited = new HashSet<>();
+        List<IRNode> stack = new ArrayList<>();
+        List<Integer> next_succ = new ArrayList<>();
+        stack.add(entry);
+        next_succ.add(0);
+        visited.add(entry);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            IRNode node = stack.get(top);
+            int i = next_succ.get(top);
+            if (i < node.successors().size()) {
+                next_succ.set(top, i + 1);
+                IRNode succ = node.successors().get(i);
+                if (visited.add(succ)) {
+                    stack.add(succ);
+                    next_succ.add(0);
+                }
+            } else {
+                postorder.add(node);
+                stack.remove(top);
+                next_succ.remove(top);
+            }
+        }
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            rpo_number.put(postorder.get(i), reverse_postorder.size());
+            reverse_postorder.add(postorder.get(i));
+        }
+    }
+
+    private IRNode intersect(IRNode a, IRNode b) {
+        while (a != b) {
+            while (rpo_number.get(a) > rpo_number.get(b)) {
+                a = idom.get(a);
+            }
+            while (rpo_number.get(b) > rpo_number.get(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    public boolean isReachable(IRNode node) {
+        return idom.containsKey(node);
+    }
+
+    // true if every path from the entry to b goes through a (a node dominates itself)
+    public boolean dominates(IRNode a, IRNode b) {
+        if (!isReachable(a) || !isReachable(b)) {
+            return false;
+        }
+        IRNode curr = b;
+        while (true) {
+            if (curr == a) {
+                return true;
+            }
+            if (curr == entry) {
+                return false;
+            }
+            curr = idom.get(curr);
+        }
+    }
+}
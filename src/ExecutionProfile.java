@@ -0,0 +1,205 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+public class ExecutionProfile {
+    // Block and edge execution counts from running the IR in IRInterpreter (IRInterpreter file.ir --profile p.prof)
+        // blocks are the static basic blocks of the unoptimized IR (see leaders), named by the line number of
+        // their first instruction, so the interpreter and the compiler agree on them as long as both read
+        // the same .ir file
+        // the file is plain text, one count per line:
+        //      block <function> <leader line> <count>
+        //      edge <function> <from leader line> <to leader line> <count>
+        // running the interpreter again with the same profile file adds to the counts (one run per N.in)
+        // the compiler (Demo ... --profile p.prof) attaches the counts to the instructions before any pass runs,
+        // keyed by function and irLineNumber so an instruction a pass rewrites in place (LVN, inverted branches)
+        // keeps its count, instructions the passes make with new line numbers have no count (-1) unless the
+        // pass copies it over (InlinePass scales the callee's counts by how often the call site ran)
+    private Map<String, Map<Integer, Long>> block_counts = new TreeMap<>(); // function -> leader line -> count
+    private Map<String, Map<Integer, Map<Integer, Long>>> edge_counts = new TreeMap<>(); // function -> from -> to -> count
+
+    // filled in by attach: function -> line -> how often that instruction ran
+    private static class InstructionCount {
+        public long count;
+        public IRInstruction.OpCode branch; // for a branch: its opcode when it jumped taken times
+        public long taken = -1;
+    }
+
+    private Map<String, Map<Integer, InstructionCount>> instruction_counts = new HashMap<>();
+
+    // leaders[i] is true if instruction i starts a basic block: the first instruction, labels, and
+    // whatever comes after a jump/branch/return (calls do not end blocks, we come back to the same block)
+    public static boolean[] leaders(IRFunction function) {
+        List<IRInstruction> instructions = function.instructions;
+        boolean[] leaders = new boolean[instructions.size()];
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruc = instructions.get(i);
+            if (i == 0 || instruc.opCode == IRInstruction.OpCode.LABEL) {
+                leaders[i] = true;
+            }
+            if (i + 1 < instructions.size() && (IRRewriter.targetOf(instruc) != null
+                    || instruc.opCode == IRInstruction.OpCode.RETURN)) {
+                leaders[i + 1] = true;
+            }
+        }
+        return leaders;
+    }
+
+    // the interpreter calls this every time it starts executing a block (from_line = -1 on function entry)
+    public void enterBlock(String function, int from_line, int line) {
+        block_counts.computeIfAbsent(function, k -> new TreeMap<>()).merge(line, 1L, Long::sum);
+        if (from_line != -1) {
+            edge_counts.computeIfAbsent(function, k -> new TreeMap<>())
+                    .computeIfAbsent(from_line, k -> new TreeMap<>()).merge(line, 1L, Long::sum);
+        }
+    }
+
+    public long blockCount(String function, int leader_line) {
+        return block_counts.getOrDefault(function, Map.of()).getOrDefault(leader_line, 0L);
+    }
+
+    public long edgeCount(String function, int from_line, int to_line) {
+        return edge_counts.getOrDefault(function, Map.of()).getOrDefault(from_line, Map.of()).getOrDefault(to_line, 0L);
+    }
+
+    // the counts of one function with line numbers relative to base_line, what the compile cache hashes
+    // (a function that only moved in the file keeps the same fingerprint)
+    public String fingerprint(String function, int base_line) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<Integer, Long> block : block_counts.getOrDefault(function, Map.of()).entrySet()) {
+            text.append("block " + (block.getKey() - base_line) + " " + block.getValue() + "\n");
+        }
+        for (Map.Entry<Integer, Map<Integer, Long>> from : edge_counts.getOrDefault(function, Map.of()).entrySet()) {
+            for (Map.Entry<Integer, Long> to : from.getValue().entrySet()) {
+                text.append("edge " + (from.getKey() - base_line) + " " + (to.getKey() - base_line) + " " + to.getValue() + "\n");
+            }
+        }
+        return text.toString();
+    }
+
+    // an empty profile if the file is not there yet
+    public static ExecutionProfile read(String path) throws FileNotFoundException {
+        ExecutionProfile profile = new ExecutionProfile();
+        if (!new File(path).exists()) {
+            return profile;
+        }
+        try (Scanner scanner = new Scanner(new File(path))) {
+            while (scanner.hasNextLine()) {
+                String[] fields = scanner.nextLine().trim().split("\\s+");
+                if (fields[0].equals("block") && fields.length == 4) {
+                    profile.block_counts.computeIfAbsent(fields[1], k -> new TreeMap<>())
+                            .merge(Integer.parseInt(fields[2]), Long.parseLong(fields[3]), Long::sum);
+                } else if (fields[0].equals("edge") && fields.length == 5) {
+                    profile.edge_counts.computeIfAbsent(fields[1], k -> new TreeMap<>())
+                            .computeIfAbsent(Integer.parseInt(fields[2]), k -> new TreeMap<>())
+                            .merge(Integer.parseInt(fields[3]), Long.parseLong(fields[4]), Long::sum);
+                }
+            }
+        }
+        return profile;
+    }
+
+    public void write(String path) throws FileNotFoundException {
+        try (PrintStream out = new PrintStream(path)) {
+            for (Map.Entry<String, Map<Integer, Long>> function : block_counts.entrySet()) {
+                for (Map.Entry<Integer, Long> block : function.getValue().entrySet()) {
+                    out.println("block " + function.getKey() + " " + block.getKey() + " " + block.getValue());
+                }
+            }
+            for (Map.Entry<String, Map<Integer, Map<Integer, Long>>> function : edge_counts.entrySet()) {
+                for (Map.Entry<Integer, Map<Integer, Long>> from : function.getValue().entrySet()) {
+                    for (Map.Entry<Integer, Long> to : from.getValue().entrySet()) {
+                        out.println("edge " + function.getKey() + " " + from.getKey() + " " + to.getKey() + " " + to.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    // Gives every instruction of the (unoptimized) program the count of its block and every branch the
+    // count of the edge to its target. Blocks the profile never saw ran 0 times.
+    public void attach(IRProgram program) {
+        for (IRFunction function : program.functions) {
+            List<IRInstruction> instructions = function.instructions;
+            boolean[] leaders = leaders(function);
+            Map<String, Integer> label_lines = new HashMap<>();
+            for (IRInstruction instruc : instructions) {
+                String label = IRRewriter.labelOf(instruc);
+                if (label != null) {
+                    label_lines.put(label, instruc.irLineNumber);
+                }
+            }
+            Map<Integer, InstructionCount> counts = instruction_counts.computeIfAbsent(function.name, k -> new HashMap<>());
+            int leader_line = -1;
+            for (int i = 0; i < instructions.size(); i++) {
+                IRInstruction instruc = instructions.get(i);
+                if (leaders[i]) {
+                    leader_line = instruc.irLineNumber;
+                }
+                InstructionCount count = new InstructionCount();
+                count.count = blockCount(function.name, leader_line);
+                String target = IRRewriter.targetOf(instruc);
+                if (IRRewriter.isBranch(instruc) && label_lines.containsKey(target)) {
+                    count.branch = instruc.opCode;
+                    count.taken = edgeCount(function.name, leader_line, label_lines.get(target));
+                }
+                counts.put(instruc.irLineNumber, count);
+            }
+        }
+    }
+
+    private InstructionCount countOf(IRFunction function, IRInstruction instruc) {
+        return instruction_counts.getOrDefault(function.name, Map.of()).get(instruc.irLineNumber);
+    }
+
+    // how many times instruc ran (-1 if we do not know)
+    public long count(IRFunction function, IRInstruction instruc) {
+        InstructionCount count = countOf(function, instruc);
+        return (count == null) ? -1 : count.count;
+    }
+
+    // how many times a branch jumped to its label (-1 if we do not know)
+    // a jump threaded to a later label still jumps as often, but an inverted branch (new opcode) does not
+    public long takenCount(IRFunction function, IRInstruction branch) {
+        InstructionCount count = countOf(function, branch);
+        if (count == null || count.branch != branch.opCode) {
+            return -1;
+        }
+        return count.taken;
+    }
+
+    // how many times the function was called (-1 if we do not know)
+    public long entryCount(IRFunction function) {
+        return function.instructions.isEmpty() ? -1 : count(function, function.instructions.get(0));
+    }
+
+    // copy (in function to) gets the counts of original (in function from) scaled by numerator / denominator,
+    // an inlined copy of a callee instruction runs original * call site count / callee entry count times
+    public void inherit(IRFunction to, IRInstruction copy, IRFunction from, IRInstruction original,
+                        long numerator, long denominator) {
+        InstructionCount count = countOf(from, original);
+        if (count == null || denominator <= 0) {
+            return;
+        }
+        InstructionCount scaled = new InstructionCount();
+        scaled.count = count.count * numerator / denominator;
+        scaled.branch = count.branch;
+        scaled.taken = (count.taken < 0) ? -1 : count.taken * numerator / denominator;
+        instruction_counts.computeIfAbsent(to.name, k -> new HashMap<>()).put(copy.irLineNumber, scaled);
+    }
+
+    // what a use/def at instruc should count for when picking what to spill: how often it actually ran,
+    // or the usual loop depth guess if the profile does not know this instruction
+    public long spillWeight(IRFunction function, IRInstruction instruc, int loop_depth) {
+        long count = count(function, instruc);
+        return (count >= 0) ? count : LoopForest.spillCostWeight(loop_depth);
+    }
+}
@@ -0,0 +1,238 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.Register;
+
+public class Frame {
+    // Stack frame of one function, everything is $sp relative (the frame is [$sp, $sp + size()))
+        // [0, 4*max_args)          outgoing args: arg i of a call goes in 4*i($sp) (i < 4 also go in $a0-$a3,
+        //                          their words are just never written), the callee finds them at 4*i($fp)
+        //                          (no area at all when no call has more than 4 args)
+        // arrays                   the function's own arrays (array params are the caller's, we only get the address)
+        // slots                    one word per virtual register the allocator keeps in memory (handed out as asked for)
+        // size - 8, size - 4       the caller's $fp and $ra, only when we need them (see finish)
+        // $fp = $sp + size() is the caller's $sp, the size is rounded up to 8 bytes (0 if there is nothing in it)
+    public IRFunction function;
+    public int out_args_size;
+    private Map<String, Integer> array_offsets = new LinkedHashMap<>();
+    private Map<String, Integer> slots = new HashMap<>();
+    private int next_offset;
+    private boolean saves_ra = true; // (finish decides these two)
+    private boolean keeps_fp = true;
+
+    public Frame(IRFunction function) {
+        this.function = function;
+        // room for the args of the call with the most of them
+        int max_args = 0;
+        for (IRInstruction instruc : function.instructions) {
+            if (instruc.opCode == IRInstruction.OpCode.CALL) {
+                max_args = Math.max(max_args, instruc.operands.length - 1);
+            } else if (instruc.opCode == IRInstruction.OpCode.CALLR) {
+                max_args = Math.max(max_args, instruc.operands.length - 2); // because now we have a return value too
+            }
+        }
+        out_args_size = (max_args > 4) ? 4 * max_args : 0;
+        next_offset = out_args_size;
+        for (IRVariableOperand var : function.variables) {
+            if (var.type instanceof IRArrayType && !isParameter(var.getName())) {
+                array_offsets.put(var.getName(), next_offset);
+                next_offset += ((IRArrayType) var.type).getSize() * 4; // we know we are only working with integers here
+            }
+        }
+    }
+
+    public boolean isParameter(String name) {
+        for (IRVariableOperand param : function.parameters) {
+            if (param.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Integer> arrayOffsets() {
+        return array_offsets;
+    }
+
+    // the word a virtual register lives in when it is not in a register (the same one every time)
+    public int slotFor(String name) {
+        Integer offset = slots.get(name);
+        if (offset == null) {
+            offset = next_offset;
+            next_offset += 4;
+            slots.put(name, offset);
+        }
+        return offset;
+    }
+
+    public int numSlots() {
+        return slots.size();
+    }
+
+    public int size() {
+        int size = next_offset + (saves_ra ? 4 : 0) + (keeps_fp ? 4 : 0); // the return address and the frame pointer
+        return (size + 7) & ~7;
+    }
+
+    /* The finished function: its label, the prologue, then code with the epilogue put in front of every jr $ra
+        prologue: make the frame (if there is anything in it), save $ra, the caller's $fp and $fp = the caller's $sp
+        epilogue: get them back and pop the frame
+        only what is needed:
+        - $ra only if we call something and return (main never does), a leaf with no slots gets no frame at all
+        - $fp only if something moves $sp after the prologue (nothing does for now), otherwise the incoming args
+          are read off $sp: n($fp) is n + size($sp)
+        - the $ra save goes where every way on from there calls something, not at the entry (see shrinkWrap), so a
+          path that returns without calling never touches memory for it
+        (only call this once the allocator is done, the slots decide the size) */
+    public List<MIPSInstruction> finish(List<MIPSInstruction> code) {
+        Register sp = new Register("$sp", false);
+        Register ra = new Register("$ra", false);
+        Register fp = new Register("$fp", false);
+        boolean calls = false;
+        boolean returns = false;
+        keeps_fp = false;
+        for (MIPSInstruction instruc : code) {
+            calls |= instruc.op == MIPSOp.JAL;
+            returns |= isReturn(instruc);
+            keeps_fp |= sp.equals(instruc.getWrite());
+        }
+        saves_ra = calls && returns;
+        int size = size();
+
+        // where $ra is saved (at the start of these blocks) and restored (before their jump, after a jal)
+            // (the entry save goes in the prologue: the first block can be a loop header, its label is jumped back to)
+        MIPScfg cfg = new MIPScfg(code);
+        BitSet save_at = new BitSet();
+        BitSet restore_at = new BitSet();
+        boolean save_in_prologue = saves_ra && (keeps_fp || !shrinkWrap(cfg, save_at, restore_at));
+        if (save_in_prologue) {
+            save_at.clear();
+            restore_at.clear();
+            for (MIPScfg.Block block : cfg.blocks) {
+                if (block.end > block.start && isReturn(code.get(block.end - 1))) {
+                    restore_at.set(block.id);
+                }
+            }
+        }
+
+        List<MIPSInstruction> finished = new ArrayList<>();
+        finished.add(new MIPSInstruction(MIPSOp.LABEL, function.name));
+        if (size > 0) {
+            finished.add(new MIPSInstruction(MIPSOp.ADDI, null, sp, sp, RegisterAllocator.imm(-size)));
+        }
+        if (keeps_fp) {
+            finished.add(new MIPSInstruction(MIPSOp.SW, null, fp, new Addr(RegisterAllocator.imm(size - 8), sp)));
+            finished.add(new MIPSInstruction(MIPSOp.ADDI, null, fp, sp, RegisterAllocator.imm(size)));
+        }
+        Addr ra_slot = keeps_fp ? new Addr(RegisterAllocator.imm(-4), fp) : new Addr(RegisterAllocator.imm(size - 4), sp);
+        if (save_in_prologue) {
+            finished.add(new MIPSInstruction(MIPSOp.SW, null, ra, ra_slot));
+        }
+        for (MIPScfg.Block block : cfg.blocks) {
+            for (int i = block.start; i < block.end; i++) {
+                MIPSInstruction instruc = code.get(i);
+                if (save_at.get(block.id) && i == block.start && instruc.op != MIPSOp.LABEL) {
+                    finished.add(new MIPSInstruction(MIPSOp.SW, null, ra, ra_slot));
+                }
+                if (restore_at.get(block.id) && i == block.end - 1 && instruc.op != MIPSOp.JAL && MIPScfg.isTerminator(instruc)) {
+                    finished.add(new MIPSInstruction(MIPSOp.LW, null, ra, ra_slot));
+                }
+                if (isReturn(instruc) && keeps_fp) {
+                    finished.add(new MIPSInstruction(MIPSOp.MOVE, null, sp, fp));
+                    finished.add(new MIPSInstruction(MIPSOp.LW, null, fp, new Addr(RegisterAllocator.imm(-8), sp)));
+                } else if (isReturn(instruc) && size > 0) {
+                    finished.add(new MIPSInstruction(MIPSOp.ADDI, null, sp, sp, RegisterAllocator.imm(size)));
+                }
+                // the incoming args are the only thing read off $fp
+                Addr addr = (instruc.operands.size() > 1 && instruc.operands.get(1) instanceof Addr) ? (Addr) instruc.operands.get(1) : null;
+                if (!keeps_fp && addr != null && fp.equals(addr.register)) {
+                    instruc = new MIPSInstruction(instruc.op, instruc.label, instruc.operands.get(0), new Addr(RegisterAllocator.imm(addr.constant.getInt() + size), sp));
+                }
+                finished.add(instruc);
+                if (save_at.get(block.id) && i == block.start && instruc.op == MIPSOp.LABEL) {
+                    finished.add(new MIPSInstruction(MIPSOp.SW, null, ra, ra_slot));
+                }
+                if (restore_at.get(block.id) && i == block.end - 1 && (instruc.op == MIPSOp.JAL || !MIPScfg.isTerminator(instruc))) {
+                    finished.add(new MIPSInstruction(MIPSOp.LW, null, ra, ra_slot));
+                }
+            }
+        }
+        return finished;
+    }
+
+    /* Shrink-wrapping of the $ra save, false if there is no placement better than the entry
+        - anticipated: every path on from the start of the block calls something before it returns
+        - the save goes at the start of an anticipated block that is not saved yet, the restore at the end of a saved
+          block none of whose successors is anticipated (before its jump, or right after its jal)
+        - where paths meet they have to agree on saved or not (otherwise after the meet we would not know if $ra is in
+          its slot), and no save or restore goes inside a loop, it would run every iteration: both mean the entry
+        - so does an entry block that is in a loop itself, "saved" would not hold coming back to it */
+    private static boolean shrinkWrap(MIPScfg cfg, BitSet save_at, BitSet restore_at) {
+        int n = cfg.blocks.size();
+        boolean[] anticipated = new boolean[n];
+        Arrays.fill(anticipated, true);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = n - 1; b >= 0; b--) {
+                MIPScfg.Block block = cfg.blocks.get(b);
+                boolean ant = !block.succs.isEmpty();
+                for (MIPScfg.Block succ : block.succs) {
+                    ant &= anticipated[succ.id];
+                }
+                ant |= block.terminator(cfg.code) >= 0 && cfg.code.get(block.terminator(cfg.code)).op == MIPSOp.JAL;
+                if (ant != anticipated[b]) {
+                    anticipated[b] = ant;
+                    changed = true;
+                }
+            }
+        }
+        cfg.computeLoopDepths();
+        if (anticipated[0] || cfg.blocks.get(0).loop_depth > 0) {
+            return false; // (that is the entry)
+        }
+
+        Boolean[] saved_out = new Boolean[n]; // null: not reached yet
+        for (int round = 0; round <= n; round++) {
+            for (MIPScfg.Block block : cfg.blocks) {
+                Boolean saved = (block.id == 0) ? Boolean.FALSE : null;
+                for (MIPScfg.Block pred : block.preds) {
+                    if (saved != null && saved_out[pred.id] != null && !saved.equals(saved_out[pred.id])) {
+                        return false;
+                    }
+                    saved = (saved != null) ? saved : saved_out[pred.id];
+                }
+                if (saved == null) {
+                    continue;
+                }
+                save_at.set(block.id, anticipated[block.id] && !saved);
+                saved |= anticipated[block.id];
+                boolean restore = saved;
+                for (MIPScfg.Block succ : block.succs) {
+                    restore &= !anticipated[succ.id];
+                }
+                restore_at.set(block.id, restore);
+                if ((save_at.get(block.id) || restore) && block.loop_depth > 0) {
+                    return false;
+                }
+                saved_out[block.id] = saved && !restore;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isReturn(MIPSInstruction instruc) {
+        return instruc.op == MIPSOp.JR && ((Register) instruc.operands.get(0)).name.equals("$ra");
+    }
+}
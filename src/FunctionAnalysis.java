@@ -0,0 +1,9 @@
+import ir.IRFunction;
+
+public interface FunctionAnalysis<T> {
+    // An analysis over one IRFunction, the result gets cached in AnalysisCache under getName()
+    String getName();
+
+    // an analysis can ask the cache for the analyses it is built on (i.e. liveness needs the CFG)
+    T compute(IRFunction function, AnalysisCache cache);
+}
@@ -0,0 +1,14 @@
+import ir.IRFunction;
+import java.util.Set;
+
+public interface FunctionPass {
+    // A transform over one IRFunction that the PassManager can schedule
+    String getName();
+
+    // names of the analyses (see Analyses) this pass changes when it changes the function
+        // use Analyses.ALL if the pass moves/removes instructions (that breaks the CFG and everything built on it)
+    Set<String> invalidates();
+
+    // returns true if the function was changed (if false nothing gets invalidated)
+    boolean run(IRFunction function, AnalysisCache cache);
+}
@@ -0,0 +1,186 @@
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Register;
+
+public class GreedyAllocator implements RegisterAllocator {
+    // Local allocation, one basic block (see MIPScfg) at a time over $t0-$t9 (--greedy)
+        // every virtual register the block touches gets one live range there: from its first def (or the block entry if
+        //   its value comes in) to its last use (or the block exit if the block wrote it and it is live out)
+        // ranges that overlap interfere, the ranges with the most uses pick first and take the lowest register none of
+        //   their colored neighbors has, whatever is left over is spilled
+        // a range with a register is loaded at block entry if its value comes in and stored at block exit if the block wrote it
+        //   and it is live out, between those it never touches memory
+        // a spilled range goes through $t8/$t9 at every use like NaiveAllocator (lw before, sw after), those two are only
+        //   kept out of the pool in blocks that actually spill, otherwise all ten registers get handed out
+        // nothing stays in a register across a jal (it ends its block), so there is nothing to save around calls
+    public static final Register[] REGISTERS = new Register[10];
+    static {
+        for (int i = 0; i < REGISTERS.length; i++) {
+            REGISTERS[i] = new Register("$t" + i, false);
+        }
+    }
+    public static final int NUM_SCRATCH = 2; // $t8, $t9 when the block spills (an instruction reads at most 2)
+    private AllocationReport report = new AllocationReport();
+
+    // a virtual register's live range in one block, positions are 2k for the reads of the block's k-th instruction and
+        // 2k + 1 for its write, so a range that dies at an instruction can give its register to the one that instruction defines
+    private static class Range {
+        String name;
+        int start; // -1: the value comes into the block
+        int end; // 2 * (block length): needed at the exit
+        int uses;
+        boolean written;
+        List<Range> neighbors = new ArrayList<>();
+        int reg = -1; // index in REGISTERS, -1 if spilled
+
+        Range(String name, int start) {
+            this.name = name;
+            this.start = start;
+            this.end = start;
+        }
+
+        boolean overlaps(Range other) {
+            return start <= other.end && other.start <= end;
+        }
+    }
+
+    public String getName() {
+        return "greedy";
+    }
+
+    public AllocationReport getReport() {
+        return report;
+    }
+
+    public List<MIPSInstruction> allocate(List<MIPSInstruction> code, List<IRInstruction> origins, Frame frame) {
+        AllocationReport.Record record = report.record(frame.function.name);
+        MIPScfg cfg = new MIPScfg(code);
+        List<MIPSInstruction> allocated = new ArrayList<>();
+        for (MIPScfg.Block block : cfg.blocks) {
+            allocateBlock(cfg, block, frame, allocated, record);
+        }
+        record.finish(allocated);
+        return allocated;
+    }
+
+    private void allocateBlock(MIPScfg cfg, MIPScfg.Block block, Frame frame, List<MIPSInstruction> allocated, AllocationReport.Record record) {
+        List<MIPSInstruction> code = cfg.code;
+        int length = block.end - block.start;
+
+        // the live ranges (in the order the block first sees them)
+        Map<String, Range> ranges = new LinkedHashMap<>();
+        for (int k = 0; k < length; k++) {
+            MIPSInstruction instruc = code.get(block.start + k);
+            for (Register reg : RegisterAllocator.virtualReads(instruc)) {
+                Range range = ranges.computeIfAbsent(reg.name, name -> new Range(name, -1));
+                range.end = 2 * k;
+                range.uses++;
+            }
+            Register write = RegisterAllocator.virtualWrite(instruc);
+            if (write != null) {
+                int position = 2 * k + 1;
+                Range range = ranges.computeIfAbsent(write.name, name -> new Range(name, position));
+                range.end = position;
+                range.uses++;
+                range.written = true;
+            }
+        }
+        for (Range range : ranges.values()) {
+            if (range.written && cfg.isLiveOut(block, range.name)) {
+                range.end = 2 * length;
+            }
+        }
+
+        // interference graph, then color it with all ten registers or, if that spills, with eight and $t8/$t9 as scratch
+        List<Range> order = new ArrayList<>(ranges.values());
+        for (int i = 0; i < order.size(); i++) {
+            for (int j = i + 1; j < order.size(); j++) {
+                if (order.get(i).overlaps(order.get(j))) {
+                    order.get(i).neighbors.add(order.get(j));
+                    order.get(j).neighbors.add(order.get(i));
+                }
+            }
+        }
+        order.sort(Comparator.comparingInt((Range range) -> -range.uses)); // (stable, ties go to the one seen first)
+        boolean spills = !color(order, REGISTERS.length);
+        if (spills) {
+            color(order, REGISTERS.length - NUM_SCRATCH);
+        }
+
+        Map<String, Register> map = new HashMap<>();
+        for (Range range : order) {
+            if (range.reg >= 0) {
+                map.put(range.name, REGISTERS[range.reg]);
+            } else {
+                record.spills++;
+            }
+        }
+
+        // the label stays first, then the loads of whatever comes in, then the code with the stores before the exit
+        Register[] scratch = Arrays.copyOfRange(REGISTERS, REGISTERS.length - NUM_SCRATCH, REGISTERS.length);
+        int k = 0;
+        if (code.get(block.start).op == MIPSOp.LABEL) {
+            allocated.add(code.get(block.start));
+            k = 1;
+        }
+        for (Range range : ranges.values()) {
+            if (range.reg >= 0 && range.start < 0) {
+                allocated.add(RegisterAllocator.load(REGISTERS[range.reg], range.name, frame));
+                record.loads++;
+            }
+        }
+        int terminator = block.terminator(code);
+        for (; k < length; k++) {
+            if (block.start + k == terminator) {
+                storeLiveOut(ranges, length, frame, allocated, record);
+            }
+            // (without spills everything is in map and this is just the rewrite)
+            RegisterAllocator.emitWithSpills(code.get(block.start + k), map, scratch, frame, allocated, record);
+        }
+        if (terminator < 0) {
+            storeLiveOut(ranges, length, frame, allocated, record);
+        }
+    }
+
+    // greedy coloring in the given order with REGISTERS[0, num_regs), false if something was spilled
+    private static boolean color(List<Range> order, int num_regs) {
+        boolean all_colored = true;
+        for (Range range : order) {
+            range.reg = -1;
+        }
+        for (Range range : order) {
+            boolean[] taken = new boolean[num_regs];
+            for (Range neighbor : range.neighbors) {
+                if (neighbor.reg >= 0 && neighbor.reg < num_regs) {
+                    taken[neighbor.reg] = true;
+                }
+            }
+            for (int reg = 0; reg < num_regs; reg++) {
+                if (!taken[reg]) {
+                    range.reg = reg;
+                    break;
+                }
+            }
+            all_colored &= range.reg >= 0;
+        }
+        return all_colored;
+    }
+
+    // at the exit: sw the ranges in registers the block wrote that are still needed after it
+    private static void storeLiveOut(Map<String, Range> ranges, int length, Frame frame, List<MIPSInstruction> allocated, AllocationReport.Record record) {
+        for (Range range : ranges.values()) {
+            if (range.reg >= 0 && range.written && range.end == 2 * length) {
+                allocated.add(RegisterAllocator.store(REGISTERS[range.reg], range.name, frame));
+                record.stores++;
+            }
+        }
+    }
+}
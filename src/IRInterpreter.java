@@ -13,8 +13,18 @@ public class IRInterpreter {
     public static void main(String[] args) throws Exception {
         IRInterpreter irInterpreter = new IRInterpreter(args[0]);
 
+        // --profile <file>: count how often every block/edge runs and add that to <file> (see ExecutionProfile)
+        String profilePath = null;
+        if (args.length > 2 && args[1].equals("--profile")) {
+            profilePath = args[2];
+            irInterpreter.enableProfiling(ExecutionProfile.read(profilePath));
+        }
+
         irInterpreter.run();
 
+        if (profilePath != null)
+            irInterpreter.profile.write(profilePath);
+
         Stats stats = irInterpreter.getStats();
         System.err.println("Number of non-label instructions executed: " + stats.getNonLabelInstructionCount());
     }
@@ -25,6 +35,7 @@ public class IRInterpreter {
         public int returnInstIdx;
         public IRFunction function;
         public Map<String, Object> varMap;
+        public int profileBlock = -1; // leader line of the block we are in (only kept when profiling)
 
         public Object getVal(IRVariableOperand variable) {
             return varMap.get(variable.getName());
@@ -99,6 +110,10 @@ public class IRInterpreter {
 
     private Stats stats;
 
+    // Profiling (null unless enableProfiling was called)
+    private ExecutionProfile profile;
+    private Map<IRFunction, boolean[]> functionLeaders;
+
     public IRInterpreter(String filename) throws FileNotFoundException, IRException {
         IRReader irReader = new IRReader();
         program = irReader.parseIRFile(filename);
@@ -122,6 +137,10 @@ public class IRInterpreter {
                     labelMap.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
             }
             functionLabelMap.put(function, labelMap);
+
+            // accesses the range analysis proves in bounds skip the check (fast path)
+            for (IRInstruction instruction : RangeAnalysis.safeAccessesOf(function))
+                instruction.needsBoundsCheck = false;
         }
     }
 
@@ -133,6 +152,13 @@ public class IRInterpreter {
 
     //IRInterpreter and IRInstruction
 
+    public void enableProfiling(ExecutionProfile profile) {
+        this.profile = profile;
+        functionLeaders = new HashMap<>();
+        for (IRFunction function : program.functions)
+            functionLeaders.put(function, ExecutionProfile.leaders(function));
+    }
+
     public void run() throws IRException {
         // Add an entry call to main
         IRFunctionOperand mainFunctionOperand = new IRFunctionOperand("main", null);
@@ -154,6 +180,8 @@ public class IRInterpreter {
         stdinScanner = new Scanner(System.in);
 
         while (true) {
+            if (profile != null)
+                recordBlock();
             IRInstruction instruction = pc.next(); //gets each instruction
             executeInstruction(instruction); //executes the instruction
 
@@ -177,6 +205,20 @@ public class IRInterpreter {
         stdinScanner.close();
     }
 
+    // counts the block (and the edge into it) when the next instruction starts one
+    private void recordBlock() {
+        StackFrame sf = stack.peek();
+        if (sf.function == null) // the entry call to main
+            return;
+        boolean[] leaders = functionLeaders.get(sf.function);
+        int idx = pc.getNextIdx();
+        if (idx >= leaders.length || !leaders[idx])
+            return;
+        int line = sf.function.instructions.get(idx).irLineNumber;
+        profile.enterBlock(sf.function.name, sf.profileBlock, line);
+        sf.profileBlock = line;
+    }
+
     public Stats getStats() {
         return stats;
     }
@@ -348,7 +390,7 @@ public class IRInterpreter {
                 Object val = getValFromVarOrConst(instruction.operands[0], sf);
                 Object[] arr = (Object[]) getValFromVarOrConst(instruction.operands[1], sf);
                 int offset = (Integer) getValFromVarOrConst(instruction.operands[2], sf);
-                if (offset < 0 || offset >= arr.length)
+                if (instruction.needsBoundsCheck && (offset < 0 || offset >= arr.length))
                     throwRuntimeException(instruction, "Out-of-bounds array access");
                 arr[offset] = val;
                 break;
@@ -357,7 +399,7 @@ public class IRInterpreter {
                 IRVariableOperand dest = (IRVariableOperand) instruction.operands[0];
                 Object[] arr = (Object[]) getValFromVarOrConst(instruction.operands[1], sf);
                 int offset = (Integer) getValFromVarOrConst(instruction.operands[2], sf);
-                if (offset < 0 || offset >= arr.length)
+                if (instruction.needsBoundsCheck && (offset < 0 || offset >= arr.length))
                     throwRuntimeException(instruction, "Out-of-bounds array access");
                 sf.setVal(dest, arr[offset]);
                 break;
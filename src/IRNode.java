@@ -1,57 +1,67 @@
 import ir.IRInstruction;
 import ir.operand.IRVariableOperand;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import java.util.ArrayList;
 
 public class IRNode {
-    //Each node is a list of instrucs and has predecessors/successors
-    //Every node/block also has its own GEN, KILL, etc sets
-        //these sets use HashSet, and use varName and lineNumber to ensure uniqueness
+    //Each node is one instruc of the function, the cfg has one of these per instruc so they are kept small
+        //id is the node's index in cfg.nodes, vars are ids into cfg.var_names
+        //the edges live in the cfg (CSR int arrays), successors()/predecessors() are views over them
+        //dataflow facts (reaching defs, liveness, ...) live in the analysis that computed them, not here
     public IRInstruction instruction;
-    public String defined_var = null;
-    public List<String> used_vars = new ArrayList<>();
-    public List<IRNode> predecessors = new ArrayList<>();
-    public List<IRNode> successors = new ArrayList<>();
-    public Set<IRNode> GEN = new HashSet<>();
-    public Set<IRNode> KILL = new HashSet<>();
-    public Set<IRNode> IN = new HashSet<>();
-    public Set<IRNode> OUT = new HashSet<>();
+    public int id;
+    public int def = -1; // var id this instruc defines, -1 if it defines nothing
+    public int[] uses; // var ids this instruc reads (operand order, a var used twice shows up twice)
     public boolean is_marked = false;
+    private IRcfg cfg;
 
-
-    // If we initialize without any parameters, just leave everything empty
-
-    public IRNode() {}
-
-    public IRNode(IRInstruction instruction) {
+    public IRNode(IRInstruction instruction, int id, IRcfg cfg) {
         this.instruction = instruction;
+        this.id = id;
+        this.cfg = cfg;
         switch(instruction.opCode) {
             case ASSIGN, ADD, SUB, MULT, DIV, AND, OR, CALLR, ARRAY_LOAD -> {
-                this.defined_var = ((IRVariableOperand) instruction.operands[0]).getName();
+                this.def = cfg.varId(((IRVariableOperand) instruction.operands[0]).getName());
             }
             default -> {
                 break;
             }
         }
+        List<Integer> used = new ArrayList<>();
         for (int i = 1; i < this.instruction.operands.length; i++) {
             if (instruction.operands[i] instanceof IRVariableOperand) {
-                used_vars.add(((IRVariableOperand) instruction.operands[i]).getName());
+                used.add(cfg.varId(((IRVariableOperand) instruction.operands[i]).getName()));
             }
         }
         // we need these special cases because the first operand is a use
         switch(instruction.opCode) {
             case ARRAY_STORE, RETURN -> {
                 if (instruction.operands[0] instanceof IRVariableOperand) {
-                    used_vars.add(((IRVariableOperand) instruction.operands[0]).getName());
+                    used.add(cfg.varId(((IRVariableOperand) instruction.operands[0]).getName()));
                 }
             }
             default -> {
                 break;
             }
         }
+        uses = new int[used.size()];
+        for (int i = 0; i < uses.length; i++) {
+            uses[i] = used.get(i);
+        }
+    }
+
+    // name of the var this instruc defines (null if none)
+    public String definedVar() {
+        return (def < 0) ? null : cfg.var_names.get(def);
+    }
+
+    public List<IRNode> successors() {
+        return cfg.successorsOf(id);
+    }
+
+    public List<IRNode> predecessors() {
+        return cfg.predecessorsOf(id);
     }
 
    public boolean equals(Object o) {
@@ -80,14 +90,4 @@ public class IRNode {
         }
         return "";
     }
-
-    public void addToGen(IRNode node) {
-        this.GEN.add(node);
-    }
-    public void addToKill(IRNode node) {
-        this.KILL.add(node);
-    }
-    public void addToOut(IRNode node) {
-        this.OUT.add(node);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class IRRewriter {
+    // Small helpers for passes that add/move IR instructions
+        // NOTE: IRNode uses irLineNumber for equals/hashCode so every new instruction needs a line number
+        //       nobody else in the function uses
+
+    public static int maxLineNumber(IRFunction function) {
+        int max = 0;
+        for (IRInstruction instruc : function.instructions) {
+            max = Math.max(max, instruc.irLineNumber);
+        }
+        return max;
+    }
+
+    public static Set<String> labelNames(IRFunction function) {
+        Set<String> labels = new HashSet<>();
+        for (IRInstruction instruc : function.instructions) {
+            if (instruc.opCode == IRInstruction.OpCode.LABEL) {
+                labels.add(((IRLabelOperand) instruc.operands[0]).getName());
+            }
+        }
+        return labels;
+    }
+
+    // base, base_1, base_2, ... whichever is not taken yet (the new name gets added to taken)
+    public static String freshName(String base, Set<String> taken) {
+        String name = base;
+        int suffix = 1;
+        while (taken.contains(name)) {
+            name = base + "_" + suffix;
+            suffix++;
+        }
+        taken.add(name);
+        return name;
+    }
+
+    public static IRInstruction newLabel(String name, int line_number) {
+        IRInstruction label = new IRInstruction(IRInstruction.OpCode.LABEL, null, line_number);
+        label.operands = new IROperand[]{new IRLabelOperand(name, label)};
+        return label;
+    }
+
+    public static IRInstruction newGoto(String label_name, int line_number) {
+        IRInstruction jump = new IRInstruction(IRInstruction.OpCode.GOTO, null, line_number);
+        jump.operands = new IROperand[]{new IRLabelOperand(label_name, jump)};
+        return jump;
+    }
+
+    public static boolean isBranch(IRInstruction instruc) {
+        switch (instruc.opCode) {
+            case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    // the label a GOTO or branch jumps to (null for anything else)
+    public static String targetOf(IRInstruction instruc) {
+        if (instruc.opCode == IRInstruction.OpCode.GOTO || isBranch(instruc)) {
+            return ((IRLabelOperand) instruc.operands[0]).getName();
+        }
+        return null;
+    }
+
+    public static String labelOf(IRInstruction instruc) {
+        if (instruc.opCode == IRInstruction.OpCode.LABEL) {
+            return ((IRLabelOperand) instruc.operands[0]).getName();
+        }
+        return null;
+    }
+
+    public static void retarget(IRInstruction instruc, String new_label) {
+        instruc.operands[0] = new IRLabelOperand(new_label, instruc);
+    }
+
+    // Puts contents right in front of the loop header so it runs once every time we enter the loop.
+    // Jumps from outside the loop to the header get retargeted to a new preheader label (only made if
+    // there are any), back edges still go to the header. Returns the preheader label name or null.
+        // NOTE: the caller has to make sure nothing inside the loop falls through into the header
+    public static String insertPreheader(IRFunction function, LoopForest.Loop loop, List<IRInstruction> contents) {
+        Set<IRInstruction> in_loop = new HashSet<>();
+        for (IRNode node : loop.body) {
+            in_loop.add(node.instruction);
+        }
+
+        List<IRInstruction> preheader = new ArrayList<>();
+        String preheader_label = null;
+        String header_label = labelOf(loop.header.instruction);
+        if (header_label != null) {
+            for (IRInstruction instruc : function.instructions) {
+                if (!in_loop.contains(instruc) && header_label.equals(targetOf(instruc))) {
+                    if (preheader_label == null) {
+                        preheader_label = freshName(header_label + "_preheader", labelNames(function));
+                    }
+                    retarget(instruc, preheader_label);
+                }
+            }
+            if (preheader_label != null) {
+                preheader.add(newLabel(preheader_label, maxLineNumber(function) + 1));
+            }
+        }
+        preheader.addAll(contents);
+
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        for (IRInstruction instruc : function.instructions) {
+            if (instruc == loop.header.instruction) {
+                new_instructions.addAll(preheader);
+            }
+            new_instructions.add(instruc);
+        }
+        function.instructions = new_instructions;
+        return preheader_label;
+    }
+
+    // true if the instruction right before the header is in the loop and falls into the header
+    // (then there is nowhere to put a preheader)
+    public static boolean fallsIntoHeader(IRcfg cfg, LoopForest.Loop loop) {
+        int header_pos = loop.header.id;
+        if (header_pos <= 0) {
+            return false;
+        }
+        IRNode before_header = cfg.nodes.get(header_pos - 1);
+        return loop.contains(before_header) && before_header.successors().contains(loop.header);
+    }
+}
@@ -1,6 +1,7 @@
 import ir.IRFunction;
 import ir.IRInstruction;
 import ir.operand.IRLabelOperand;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
@@ -8,74 +9,126 @@ import java.util.HashMap;
 
 public class IRcfg {
     //public IRNode entry_node; // the entry node for the CFG (i.e. head)
-    public List<IRNode> nodes = new ArrayList<>(); // list of nodes in the graph (each are individual instrucs; in order when "executing" code)
-
-    public IRcfg() {}
+    public List<IRNode> nodes = new ArrayList<>(); // list of nodes in the graph (each are individual instrucs; in order when "executing" code), nodes.get(i).id == i
+    public List<String> var_names = new ArrayList<>(); // var id -> name (ids are handed out as the nodes see the vars)
+    private Map<String, Integer> var_ids = new HashMap<>();
+    // edges in CSR form: the successors of node i are succ_ids[succ_start[i] .. succ_start[i + 1])
+        // (for a branch the label comes first, then the fallthrough), predecessors the same with pred_*
+    public int[] succ_start;
+    public int[] succ_ids;
+    public int[] pred_start;
+    public int[] pred_ids;
 
     public IRcfg(IRFunction function) {
-        Map<Integer, IRNode> irInstrucToNode = new HashMap<>();
-        Map<String, IRNode> irLabelToNode = new HashMap<>();
-        //public Map<String, IRNode> irFunctionToNode = new HashMap();
+        Map<String, Integer> irLabelToNode = new HashMap<>();
+        List<IRInstruction> instructions = function.instructions;
+        int num_nodes = instructions.size();
 
         // first pass: create a node for each instruction, then we can work off the nodes rather than instructions
-        for (IRInstruction instruction : function.instructions) {
-            IRNode new_node = new IRNode(instruction);
-            irInstrucToNode.put(instruction.irLineNumber, new_node);
-
+        for (int i = 0; i < num_nodes; i++) {
+            IRInstruction instruction = instructions.get(i);
+            this.nodes.add(new IRNode(instruction, i, this));
             if (instruction.opCode == IRInstruction.OpCode.LABEL) { // this instruction is a label, lets add it for easy data flow
-                String label_name = ((IRLabelOperand) instruction.operands[0]).getName();
-                irLabelToNode.put(label_name, irInstrucToNode.get(instruction.irLineNumber));
+                irLabelToNode.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
             }
         }
 
         // now that I have the nodes of the graph, i need to connect them to represent the data flow correctly
-        IRInstruction curr_instruction = null;
-        IRNode curr_node = null;
-        List<IRInstruction> instructions = function.instructions;
-        for (int i = 0; i < instructions.size(); i++) {
-            curr_instruction = instructions.get(i);
-            curr_node = irInstrucToNode.get(curr_instruction.irLineNumber);
-            //now that we have the node, we can actually connect nodes when we find the data flow (branch, goto, regular instruction)
+            // every instruction has at most 2 successors: the label it jumps to and/or the next instruction
+        int[] jump_to = new int[num_nodes];
+        int[] falls_to = new int[num_nodes];
+        int num_edges = 0;
+        for (int i = 0; i < num_nodes; i++) {
+            IRInstruction curr_instruction = instructions.get(i);
+            jump_to[i] = -1;
+            falls_to[i] = -1;
             switch (curr_instruction.opCode) {
                 case GOTO -> {
-                    String goto_label = ((IRLabelOperand) curr_instruction.operands[0]).getName();
-                    IRNode target_node = irLabelToNode.get(goto_label);
-                    connectNodes(curr_node, target_node);
+                    jump_to[i] = irLabelToNode.get(((IRLabelOperand) curr_instruction.operands[0]).getName());
                 }
-                //BRANCH CASES: we need to make a target_node for jumping to label AND for just going to next-line (condition is not met)
+                //BRANCH CASES: one edge for jumping to label AND one for just going to next-line (condition is not met)
                 case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
-                    //if we were to take the branch
-                    String branch_label = ((IRLabelOperand) curr_instruction.operands[0]).getName();
-                    IRNode target_node1 = irLabelToNode.get(branch_label);
-                    connectNodes(curr_node, target_node1);
-                    //if we didn't take the branch, we just go to the next instruction
-                    if (i + 1 < instructions.size()) {
-                        IRInstruction next_instruc = instructions.get(i + 1);
-                        IRNode target_node2 = irInstrucToNode.get(next_instruc.irLineNumber); //curr instruc, we just want next instruc (node)
-                        connectNodes(curr_node, target_node2);
+                    jump_to[i] = irLabelToNode.get(((IRLabelOperand) curr_instruction.operands[0]).getName());
+                    if (i + 1 < num_nodes) {
+                        falls_to[i] = i + 1;
                     }
                 }
                 case RETURN -> {
                     break;
                 }
                 default -> { //everything else including CALL, CALLR
-                    if (i + 1 < instructions.size()) {
-                        IRInstruction next_instruc = instructions.get(i + 1);
-                        IRNode target_node = irInstrucToNode.get(next_instruc.irLineNumber);
-                        connectNodes(curr_node, target_node);
+                    if (i + 1 < num_nodes) {
+                        falls_to[i] = i + 1;
                     }
                 }
             }
-            this.nodes.add(curr_node); // add this to the list of nodes after all info needed for it
+            num_edges += ((jump_to[i] < 0) ? 0 : 1) + ((falls_to[i] < 0) ? 0 : 1);
+        }
+
+        succ_start = new int[num_nodes + 1];
+        succ_ids = new int[num_edges];
+        pred_start = new int[num_nodes + 1];
+        pred_ids = new int[num_edges];
+        int edge = 0;
+        for (int i = 0; i < num_nodes; i++) {
+            succ_start[i] = edge;
+            if (jump_to[i] >= 0) {
+                succ_ids[edge++] = jump_to[i];
+                pred_start[jump_to[i] + 1]++;
+            }
+            if (falls_to[i] >= 0) {
+                succ_ids[edge++] = falls_to[i];
+                pred_start[falls_to[i] + 1]++;
+            }
+        }
+        succ_start[num_nodes] = edge;
+        for (int i = 0; i < num_nodes; i++) {
+            pred_start[i + 1] += pred_start[i];
+        }
+        // predecessors end up in instruction order since we go over the edges in order
+        int[] next_pred = new int[num_nodes];
+        for (int from = 0; from < num_nodes; from++) {
+            for (int e = succ_start[from]; e < succ_start[from + 1]; e++) {
+                int to = succ_ids[e];
+                pred_ids[pred_start[to] + next_pred[to]++] = from;
+            }
         }
     }
 
-    public void addToCFG(IRNode node) {
-        this.nodes.add(node);
+    // the id of a var (a new one the first time we see the name)
+    public int varId(String name) {
+        Integer id = var_ids.get(name);
+        if (id == null) {
+            id = var_names.size();
+            var_ids.put(name, id);
+            var_names.add(name);
+        }
+        return id;
+    }
+
+    // -1 if no instruction mentions the var
+    public int lookupVar(String name) {
+        return var_ids.getOrDefault(name, -1);
+    }
+
+    public List<IRNode> successorsOf(int id) {
+        return nodeList(succ_ids, succ_start[id], succ_start[id + 1]);
     }
 
-    public void connectNodes(IRNode from, IRNode to) {
-        from.successors.add(to);
-        to.predecessors.add(from);
+    public List<IRNode> predecessorsOf(int id) {
+        return nodeList(pred_ids, pred_start[id], pred_start[id + 1]);
+    }
+
+    // read only view of ids[from .. to) as nodes (nothing gets copied)
+    public List<IRNode> nodeList(int[] ids, int from, int to) {
+        return new AbstractList<>() {
+            public IRNode get(int i) {
+                return nodes.get(ids[from + i]);
+            }
+
+            public int size() {
+                return to - from;
+            }
+        };
     }
-}
\ No newline at end of file
+}
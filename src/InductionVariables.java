@@ -0,0 +1,332 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class InductionVariables {
+    // Strength reduction plan for array accesses indexed by an induction variable
+        // a basic IV of a loop is a var whose only def in the loop is i = i + c or i = i - c (c constant)
+        // a derived IV is an index j = a*i + b built from one in straight-line code right before the access
+        // (j = i + b, i - b, a*i, then + b again, ..., see linearIndex)
+        // for every (array A, basic IV i, scale a) used as A[a*i + b] inside the loop we keep a running pointer p:
+        //      preheader:      p = A + 4*a*i        (sll p, i, 2; add p, A, p for a = 1)
+        //      after i += c:   p = p + 4*a*c        (addi p, p, 4ac)
+        //      A[a*i + b]:     lw/sw x, 4b(p)       (instead of computing j, then sll + add + lw/sw)
+        // since i only changes at its one def, p == A + 4*a*i holds everywhere in the loop
+        // an index var that only ever goes into such accesses is not computed at all anymore (see isDead)
+    public static class PointerIV {
+        public String array;
+        public String iv;
+        public String pointer; // name of the virtual register holding A + 4*a*i
+        public int scale = 1; // a
+        public int step; // how much i changes per update
+        public IRInstruction header; // the pointer is set up right before this instruction
+        public IRInstruction update; // the one i = i +/- c in the loop
+        public List<IRInstruction> accesses = new ArrayList<>();
+    }
+
+    public List<PointerIV> pointers = new ArrayList<>();
+    private Map<IRInstruction, List<PointerIV>> init_before = new HashMap<>();
+    private Map<IRInstruction, List<PointerIV>> bump_after = new HashMap<>();
+    private Map<IRInstruction, PointerIV> access_pointer = new HashMap<>();
+    private Map<IRInstruction, Integer> access_offset = new HashMap<>(); // 4*b
+    private Set<IRInstruction> dead_defs = new HashSet<>();
+
+    // an index as a*iv + b (see linearIndex)
+    private static class LinearIndex {
+        String iv;
+        int scale = 1;
+        int offset = 0;
+        int iv_read; // the node where the chain reads the iv
+    }
+
+    private InductionVariables() {}
+
+    // NOTE: this can add preheader labels to function.instructions (so run it right before instruction selection)
+    public static InductionVariables plan(IRFunction function) {
+        InductionVariables plan = new InductionVariables();
+        IRcfg cfg = new IRcfg(function);
+        DominatorTree dom = new DominatorTree(cfg);
+        LoopForest loops = new LoopForest(cfg, dom);
+
+        Set<String> taken_names = new HashSet<>();
+        for (IRVariableOperand var : function.variables) {
+            taken_names.add(var.getName());
+        }
+        for (IRVariableOperand param : function.parameters) {
+            taken_names.add(param.getName());
+        }
+
+        Set<IRInstruction> claimed = new HashSet<>(); // accesses already covered by an outer loop's pointer
+        List<LoopForest.Loop> needs_preheader = new ArrayList<>();
+        for (LoopForest.Loop loop : loops.loops) { // outer loops first
+            if (IRRewriter.fallsIntoHeader(cfg, loop)) {
+                continue;
+            }
+            Map<String, IRNode> basic_ivs = findBasicIVs(loop);
+            if (basic_ivs.isEmpty()) {
+                continue;
+            }
+            // group the accesses A[i] by (A, i), in program order so the output does not move around
+            Map<String, PointerIV> by_pair = new LinkedHashMap<>();
+            for (IRNode node : cfg.nodes) {
+                if (!loop.contains(node) || claimed.contains(node.instruction)) {
+                    continue;
+                }
+                IRInstruction instruc = node.instruction;
+                if (instruc.opCode != IRInstruction.OpCode.ARRAY_LOAD && instruc.opCode != IRInstruction.OpCode.ARRAY_STORE) {
+                    continue;
+                }
+                if (!(instruc.operands[2] instanceof IRVariableOperand)) {
+                    continue;
+                }
+                // the value we store has to be in a register already
+                if (instruc.opCode == IRInstruction.OpCode.ARRAY_STORE && !(instruc.operands[0] instanceof IRVariableOperand)) {
+                    continue;
+                }
+                LinearIndex index = linearIndex(cfg, node.id, ((IRVariableOperand) instruc.operands[2]).getName(), basic_ivs);
+                if (index == null || index.scale == 0) {
+                    continue;
+                }
+                IRNode update = basic_ivs.get(index.iv);
+                // the offset and the bump are immediates
+                if (!fitsImm(4L * index.offset) || !fitsImm(4L * index.scale * stepOf(update.instruction))) {
+                    continue;
+                }
+                String array = ((IRVariableOperand) instruc.operands[1]).getName();
+                String key = array + " " + index.iv + " " + index.scale;
+                PointerIV pointer = by_pair.get(key);
+                if (pointer == null) {
+                    pointer = new PointerIV();
+                    pointer.array = array;
+                    pointer.iv = index.iv;
+                    String scaled = (index.scale == 1) ? "" : "_x" + Math.abs(index.scale);
+                    pointer.pointer = IRRewriter.freshName(array + "_" + index.iv + scaled + "_ptr", taken_names);
+                    pointer.scale = index.scale;
+                    pointer.step = stepOf(update.instruction);
+                    pointer.header = loop.header.instruction;
+                    pointer.update = update.instruction;
+                    by_pair.put(key, pointer);
+                }
+                pointer.accesses.add(instruc);
+                plan.access_offset.put(instruc, 4 * index.offset);
+                claimed.add(instruc);
+            }
+            if (by_pair.isEmpty()) {
+                continue;
+            }
+            needs_preheader.add(loop);
+            for (PointerIV pointer : by_pair.values()) {
+                plan.pointers.add(pointer);
+                plan.init_before.computeIfAbsent(pointer.header, k -> new ArrayList<>()).add(pointer);
+                plan.bump_after.computeIfAbsent(pointer.update, k -> new ArrayList<>()).add(pointer);
+                for (IRInstruction access : pointer.accesses) {
+                    plan.access_pointer.put(access, pointer);
+                }
+            }
+        }
+
+        plan.findDeadDefs(cfg);
+
+        // jumps into these loops from outside have to go through the pointer setup code
+        for (LoopForest.Loop loop : needs_preheader) {
+            IRRewriter.insertPreheader(function, loop, new ArrayList<>());
+        }
+        return plan;
+    }
+
+    // index read at node pos as a*iv + b (null if it is not one)
+        // the iv must not move between where the chain reads it and pos: its pointer is bumped right after the update,
+        // the index still has the old value
+    private static LinearIndex linearIndex(IRcfg cfg, int pos, String index_var, Map<String, IRNode> basic_ivs) {
+        LinearIndex index = linearAt(cfg, pos, index_var, basic_ivs);
+        if (index == null) {
+            return null;
+        }
+        int update = basic_ivs.get(index.iv).id;
+        return (update > index.iv_read && update < pos) ? null : index;
+    }
+
+    // var as read at node pos: a basic iv, or the last def of var going back over straight-line code is
+    // var = x, x + c, c + x, x - c, x * c or c * x with x linear in turn
+    private static LinearIndex linearAt(IRcfg cfg, int pos, String var, Map<String, IRNode> basic_ivs) {
+        if (basic_ivs.containsKey(var)) {
+            LinearIndex index = new LinearIndex();
+            index.iv = var;
+            index.iv_read = pos;
+            return index;
+        }
+        for (int j = pos - 1; j >= 0 && cfg.predecessorsOf(j + 1).equals(List.of(cfg.nodes.get(j))); j--) {
+            IRInstruction def = cfg.nodes.get(j).instruction;
+            if (!var.equals(cfg.nodes.get(j).definedVar())) {
+                continue;
+            }
+            IRInstruction.OpCode op = def.opCode;
+            if (op == IRInstruction.OpCode.ASSIGN && def.operands.length == 2 && def.operands[1] instanceof IRVariableOperand) {
+                return linearAt(cfg, j, ((IRVariableOperand) def.operands[1]).getName(), basic_ivs);
+            }
+            if (op != IRInstruction.OpCode.ADD && op != IRInstruction.OpCode.SUB && op != IRInstruction.OpCode.MULT) {
+                return null;
+            }
+            IROperand x = def.operands[1];
+            IROperand c = def.operands[2];
+            if (op != IRInstruction.OpCode.SUB && x instanceof IRConstantOperand) {
+                x = def.operands[2];
+                c = def.operands[1];
+            }
+            if (!(x instanceof IRVariableOperand) || !(c instanceof IRConstantOperand)) {
+                return null;
+            }
+            int k = Integer.decode(((IRConstantOperand) c).getValueString());
+            LinearIndex index = linearAt(cfg, j, ((IRVariableOperand) x).getName(), basic_ivs);
+            if (index == null || Math.abs(k) > 1024) {
+                return null;
+            }
+            if (op == IRInstruction.OpCode.MULT) {
+                index.scale *= k;
+                index.offset *= k;
+            } else {
+                index.offset += (op == IRInstruction.OpCode.ADD) ? k : -k;
+            }
+            return fitsImm(4L * index.scale) && fitsImm(4L * index.offset) ? index : null;
+        }
+        return null;
+    }
+
+    private static boolean fitsImm(long value) {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    // the defs of index vars whose value nothing needs anymore: every read of them is the index of an access that goes
+    // through a pointer now, or the def of another such var
+    private void findDeadDefs(IRcfg cfg) {
+        Set<String> ivs = new HashSet<>();
+        for (PointerIV pointer : pointers) {
+            ivs.add(pointer.iv); // (the pointer setup reads these)
+        }
+        Map<String, List<IRNode>> defs = new HashMap<>();
+        for (IRNode node : cfg.nodes) {
+            if (node.definedVar() != null) {
+                defs.computeIfAbsent(node.definedVar(), k -> new ArrayList<>()).add(node);
+            }
+        }
+        // the candidates: index vars and what their defs read, all of it plain arithmetic
+        Set<String> dead = new HashSet<>();
+        List<String> worklist = new ArrayList<>();
+        for (IRInstruction access : access_pointer.keySet()) {
+            worklist.add(((IRVariableOperand) access.operands[2]).getName());
+        }
+        while (!worklist.isEmpty()) {
+            String var = worklist.remove(worklist.size() - 1);
+            if (ivs.contains(var) || !dead.add(var)) {
+                continue;
+            }
+            for (IRNode def : defs.getOrDefault(var, List.of())) {
+                IRInstruction.OpCode op = def.instruction.opCode;
+                if (op != IRInstruction.OpCode.ASSIGN && op != IRInstruction.OpCode.ADD && op != IRInstruction.OpCode.SUB
+                        && op != IRInstruction.OpCode.MULT || def.instruction.operands.length != ((op == IRInstruction.OpCode.ASSIGN) ? 2 : 3)) {
+                    ivs.add(var); // (not a candidate after all, the loop below drops it)
+                }
+                for (int use : def.uses) {
+                    worklist.add(cfg.var_names.get(use));
+                }
+            }
+        }
+        dead.removeAll(ivs);
+        // then drop every candidate something else still reads, until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRNode node : cfg.nodes) {
+                for (int use : node.uses) {
+                    String var = cfg.var_names.get(use);
+                    if (dead.contains(var) && !readsOnlyAsIndex(node, var) && !dead.contains(node.definedVar())) {
+                        dead.remove(var);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (String var : dead) {
+            for (IRNode def : defs.getOrDefault(var, List.of())) {
+                dead_defs.add(def.instruction);
+            }
+        }
+    }
+
+    // node is an access through a pointer and var is just its index
+    private boolean readsOnlyAsIndex(IRNode node, String var) {
+        IRInstruction instruc = node.instruction;
+        return access_pointer.containsKey(instruc) && !isVar(instruc.operands[0], var) && !isVar(instruc.operands[1], var);
+    }
+
+    // var -> its one i = i +/- c def inside the loop
+    private static Map<String, IRNode> findBasicIVs(LoopForest.Loop loop) {
+        Map<String, List<IRNode>> defs_in_loop = new HashMap<>();
+        for (IRNode node : loop.body) {
+            if (node.definedVar() != null) {
+                defs_in_loop.computeIfAbsent(node.definedVar(), k -> new ArrayList<>()).add(node);
+            }
+        }
+        Map<String, IRNode> basic_ivs = new HashMap<>();
+        for (Map.Entry<String, List<IRNode>> entry : defs_in_loop.entrySet()) {
+            if (entry.getValue().size() == 1 && stepOf(entry.getValue().get(0).instruction) != 0) {
+                basic_ivs.put(entry.getKey(), entry.getValue().get(0));
+            }
+        }
+        return basic_ivs;
+    }
+
+    // c for i = i + c / i = c + i, -c for i = i - c, 0 if this is not an IV update
+    private static int stepOf(IRInstruction instruc) {
+        if (instruc.opCode != IRInstruction.OpCode.ADD && instruc.opCode != IRInstruction.OpCode.SUB) {
+            return 0;
+        }
+        String dest = ((IRVariableOperand) instruc.operands[0]).getName();
+        IROperand y = instruc.operands[1];
+        IROperand z = instruc.operands[2];
+        if (isVar(y, dest) && z instanceof IRConstantOperand) {
+            int c = Integer.parseInt(z.toString());
+            return (instruc.opCode == IRInstruction.OpCode.ADD) ? c : -c;
+        }
+        if (instruc.opCode == IRInstruction.OpCode.ADD && isVar(z, dest) && y instanceof IRConstantOperand) {
+            return Integer.parseInt(y.toString());
+        }
+        return 0;
+    }
+
+    private static boolean isVar(IROperand operand, String name) {
+        return operand instanceof IRVariableOperand && ((IRVariableOperand) operand).getName().equals(name);
+    }
+
+    public List<PointerIV> initsBefore(IRInstruction instruc) {
+        return init_before.getOrDefault(instruc, List.of());
+    }
+
+    public List<PointerIV> bumpsAfter(IRInstruction instruc) {
+        return bump_after.getOrDefault(instruc, List.of());
+    }
+
+    // the pointer an ARRAY_LOAD/ARRAY_STORE should go through (null = use the normal sll/add lowering)
+    public PointerIV pointerFor(IRInstruction instruc) {
+        return access_pointer.get(instruc);
+    }
+
+    // the lw/sw offset from that pointer
+    public int offsetFor(IRInstruction instruc) {
+        return access_offset.getOrDefault(instruc, 0);
+    }
+
+    // a def of an index var nothing reads anymore (the selector leaves it out)
+    public boolean isDead(IRInstruction instruc) {
+        return dead_defs.contains(instruc);
+    }
+}
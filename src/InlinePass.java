@@ -0,0 +1,325 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRFunctionOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class InlinePass implements ProgramPass {
+    // Inlines calls to small functions (saves the frame setup, $ra/$fp saves and the jal/jr)
+        // we go over the call graph bottom-up so a callee has already had its own calls inlined
+        // call, f, a, b / callr, x, f, a, b becomes:
+        //      assign, f_p, a              (scalar params, array params just become the caller's array)
+        //      assign, f_v, 0              (callee locals read before written, every call starts them at 0)
+        //      <callee body with vars/labels renamed>
+        //          return, y   ==>   assign, x, f_y; goto, f_ret
+        //      f_ret:
+        // recursive functions (quicksort) are never inlined, it would never stop (calls into them stay calls)
+        // functions nobody calls anymore (except main) get dropped from the program
+        // with a profile (see ExecutionProfile) the frequency of a call is how often it really ran per call
+        // of the caller instead of the loop depth guess, so calls that never ran only get the tiny callees
+
+    // cost model knobs (sizes are in IR instructions, not counting labels)
+    private static final int ALWAYS_INLINE_SIZE = 8; // about what the call itself costs in MIPS
+    private static final int INLINE_BUDGET = 30; // budget for a call that runs once, scaled up by how often it runs
+    private static final int MAX_FREQUENCY_SCALE = 10;
+    private static final int MAX_CALLER_SIZE = 1000;
+    private static final int REGISTER_BUDGET = GreedyAllocator.REGISTERS.length; // the $t registers every allocator hands out
+    private static final int PRESSURE_PENALTY = 4; // per value over REGISTER_BUDGET (each one is a spill)
+
+    private ExecutionProfile profile; // null if we have none
+
+    public InlinePass() {
+        this(null);
+    }
+
+    public InlinePass(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    public String getName() {
+        return "inline";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRProgram program, AnalysisCache cache) {
+        CallGraph call_graph = new CallGraph(program);
+        boolean changed = false;
+        for (List<IRFunction> scc : call_graph.sccs) {
+            for (IRFunction caller : scc) {
+                for (CallGraph.CallSite site : call_graph.calls_from.get(caller)) {
+                    if (shouldInline(site, call_graph, cache)) {
+                        inlineCall(site);
+                        cache.invalidateAll(caller);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        if (changed) {
+            removeUncalledFunctions(program);
+        }
+        return changed;
+    }
+
+    private boolean shouldInline(CallGraph.CallSite site, CallGraph call_graph, AnalysisCache cache) {
+        IRFunction caller = site.caller;
+        IRFunction callee = site.callee;
+        if (callee == caller || call_graph.isRecursive(callee) || callee.name.equals("main")) {
+            return false;
+        }
+        // every call gets a fresh (zeroed) copy of a local array, not worth copying that around
+        for (IRVariableOperand var : callee.variables) {
+            if (var.type instanceof IRArrayType && !ArrayAlias.isParameter(callee, var.getName())) {
+                return false;
+            }
+        }
+        int size = sizeOf(callee);
+        if (sizeOf(caller) + size > MAX_CALLER_SIZE) {
+            return false;
+        }
+        if (size <= ALWAYS_INLINE_SIZE) {
+            return true;
+        }
+
+        // how often the call runs, estimated from the loop nesting around it
+        IRcfg caller_cfg = cache.get(caller, Analyses.CFG);
+        IRNode call_node = nodeOf(caller_cfg, site.instruction);
+        if (call_node == null) {
+            return false;
+        }
+        LoopForest loops = cache.get(caller, Analyses.LOOPS);
+        long frequency = Math.min(LoopForest.spillCostWeight(loops.loopDepth(call_node)), MAX_FREQUENCY_SCALE);
+        if (profile != null && profile.count(caller, site.instruction) >= 0 && profile.entryCount(caller) > 0) {
+            long calls = profile.count(caller, site.instruction);
+            long caller_runs = profile.entryCount(caller);
+            frequency = Math.min((calls + caller_runs - 1) / caller_runs, MAX_FREQUENCY_SCALE);
+        }
+
+        // values live across the call plus what the callee keeps live all end up live at the same time
+        Liveness caller_liveness = cache.get(caller, Analyses.LIVENESS);
+        int pressure = caller_liveness.liveOutCount(call_node) + maxLive(callee, cache);
+        int penalty = Math.max(0, pressure - REGISTER_BUDGET) * PRESSURE_PENALTY;
+
+        return size + penalty <= INLINE_BUDGET * frequency;
+    }
+
+    private static int sizeOf(IRFunction function) {
+        int size = 0;
+        for (IRInstruction instruc : function.instructions) {
+            if (instruc.opCode != IRInstruction.OpCode.LABEL) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private static IRNode nodeOf(IRcfg cfg, IRInstruction instruc) {
+        for (IRNode node : cfg.nodes) {
+            if (node.instruction == instruc) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static int maxLive(IRFunction function, AnalysisCache cache) {
+        Liveness liveness = cache.get(function, Analyses.LIVENESS);
+        int max = 0;
+        for (IRNode node : cache.get(function, Analyses.CFG).nodes) {
+            max = Math.max(max, liveness.liveInCount(node));
+        }
+        return max;
+    }
+
+    private void inlineCall(CallGraph.CallSite site) {
+        IRFunction caller = site.caller;
+        IRFunction callee = site.callee;
+        IRInstruction call = site.instruction;
+        int first_arg = (call.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+        IRVariableOperand result = (call.opCode == IRInstruction.OpCode.CALLR) ? (IRVariableOperand) call.operands[0] : null;
+
+        Set<String> taken_vars = new HashSet<>();
+        for (IRVariableOperand var : caller.variables) {
+            taken_vars.add(var.getName());
+        }
+        for (IRVariableOperand param : caller.parameters) {
+            taken_vars.add(param.getName());
+        }
+        Set<String> taken_labels = IRRewriter.labelNames(caller);
+
+        // callee var -> the caller var it becomes
+        Map<String, IRVariableOperand> var_map = new HashMap<>();
+        List<IRVariableOperand> new_variables = new ArrayList<>();
+        List<IRVariableOperand> scalar_params = new ArrayList<>();
+        for (int i = 0; i < callee.parameters.size(); i++) {
+            IRVariableOperand param = callee.parameters.get(i);
+            IROperand arg = call.operands[first_arg + i];
+            if (param.type instanceof IRArrayType) {
+                var_map.put(param.getName(), (IRVariableOperand) arg); // arrays are passed by reference
+            } else {
+                scalar_params.add(param);
+            }
+        }
+        for (IRVariableOperand var : callee.variables) {
+            if (var_map.containsKey(var.getName())) {
+                continue;
+            }
+            String name = IRRewriter.freshName(callee.name + "_" + var.getName(), taken_vars);
+            IRVariableOperand renamed = new IRVariableOperand(var.type, name, null);
+            var_map.put(var.getName(), renamed);
+            new_variables.add(renamed);
+        }
+        for (IRVariableOperand param : scalar_params) {
+            if (!var_map.containsKey(param.getName())) { // params are normally in variables too
+                String name = IRRewriter.freshName(callee.name + "_" + param.getName(), taken_vars);
+                IRVariableOperand renamed = new IRVariableOperand(param.type, name, null);
+                var_map.put(param.getName(), renamed);
+                new_variables.add(renamed);
+            }
+        }
+        Map<String, String> label_map = new HashMap<>();
+        for (String label : IRRewriter.labelNames(callee)) {
+            label_map.put(label, IRRewriter.freshName(callee.name + "_" + label, taken_labels));
+        }
+        String return_label = IRRewriter.freshName(callee.name + "_ret", taken_labels);
+
+        int line_number = IRRewriter.maxLineNumber(caller);
+        List<IRInstruction> body = new ArrayList<>();
+        // the copies run (call site count / callee entry count) times as often as the callee's instructions
+        long site_count = (profile != null) ? profile.count(caller, call) : -1;
+        long callee_runs = (profile != null) ? profile.entryCount(callee) : -1;
+
+        // bind the params
+        for (int i = 0; i < callee.parameters.size(); i++) {
+            IRVariableOperand param = callee.parameters.get(i);
+            if (param.type instanceof IRArrayType) {
+                continue;
+            }
+            IRInstruction bind = new IRInstruction(IRInstruction.OpCode.ASSIGN, null, ++line_number);
+            bind.operands = new IROperand[]{renameVar(var_map.get(param.getName()), bind),
+                    copyOperand(call.operands[first_arg + i], Map.of(), Map.of(), bind)}; // the arg is a caller operand
+            body.add(bind);
+        }
+        // locals the callee reads before writing have to start at 0 like they would on a real call
+        Set<String> params = new HashSet<>();
+        for (IRVariableOperand param : callee.parameters) {
+            params.add(param.getName());
+        }
+        IRcfg callee_cfg = new IRcfg(callee);
+        if (!callee_cfg.nodes.isEmpty()) {
+            Liveness callee_liveness = new Liveness(callee_cfg);
+            for (IRVariableOperand var : callee.variables) {
+                if (params.contains(var.getName()) || !callee_liveness.liveIn(callee_cfg.nodes.get(0)).contains(var.getName())) {
+                    continue;
+                }
+                IRInstruction zero = new IRInstruction(IRInstruction.OpCode.ASSIGN, null, ++line_number);
+                String value = (var.type == IRFloatType.get()) ? "0.0" : "0";
+                zero.operands = new IROperand[]{renameVar(var_map.get(var.getName()), zero), new IRConstantOperand(var.type, value, zero)};
+                body.add(zero);
+            }
+        }
+
+        // the body
+        boolean uses_return_label = false;
+        for (int i = 0; i < callee.instructions.size(); i++) {
+            IRInstruction instruc = callee.instructions.get(i);
+            if (instruc.opCode == IRInstruction.OpCode.RETURN) {
+                int return_start = body.size();
+                if (result != null) {
+                    IRInstruction move = new IRInstruction(IRInstruction.OpCode.ASSIGN, null, ++line_number);
+                    move.operands = new IROperand[]{renameVar(result, move), copyOperand(instruc.operands[0], var_map, label_map, move)};
+                    body.add(move);
+                }
+                if (i != callee.instructions.size() - 1) {
+                    body.add(IRRewriter.newGoto(return_label, ++line_number));
+                    uses_return_label = true;
+                }
+                if (site_count >= 0) { // they run as often as the return did
+                    for (int j = return_start; j < body.size(); j++) {
+                        profile.inherit(caller, body.get(j), callee, instruc, site_count, callee_runs);
+                    }
+                }
+                continue;
+            }
+            IRInstruction copy = new IRInstruction(instruc.opCode, null, ++line_number);
+            copy.operands = new IROperand[instruc.operands.length];
+            for (int j = 0; j < instruc.operands.length; j++) {
+                copy.operands[j] = copyOperand(instruc.operands[j], var_map, label_map, copy);
+            }
+            if (site_count >= 0) {
+                profile.inherit(caller, copy, callee, instruc, site_count, callee_runs);
+            }
+            body.add(copy);
+        }
+        if (uses_return_label) {
+            body.add(IRRewriter.newLabel(return_label, ++line_number));
+        }
+        if (site_count >= 0) { // the param binds (and the return label) run once per call
+            for (IRInstruction instruc : body) {
+                if (profile.count(caller, instruc) < 0) {
+                    profile.inherit(caller, instruc, caller, call, 1, 1);
+                }
+            }
+        }
+
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        for (IRInstruction instruc : caller.instructions) {
+            if (instruc == call) {
+                new_instructions.addAll(body);
+            } else {
+                new_instructions.add(instruc);
+            }
+        }
+        caller.instructions = new_instructions;
+        List<IRVariableOperand> caller_variables = new ArrayList<>(caller.variables);
+        caller_variables.addAll(new_variables);
+        caller.variables = caller_variables;
+    }
+
+    private static IRVariableOperand renameVar(IRVariableOperand var, IRInstruction parent) {
+        return new IRVariableOperand(var.type, var.getName(), parent);
+    }
+
+    private static IROperand copyOperand(IROperand operand, Map<String, IRVariableOperand> var_map,
+            Map<String, String> label_map, IRInstruction parent) {
+        if (operand instanceof IRVariableOperand) {
+            IRVariableOperand var = (IRVariableOperand) operand;
+            IRVariableOperand renamed = var_map.get(var.getName());
+            return renameVar((renamed != null) ? renamed : var, parent);
+        }
+        if (operand instanceof IRLabelOperand) {
+            String name = ((IRLabelOperand) operand).getName();
+            return new IRLabelOperand(label_map.getOrDefault(name, name), parent);
+        }
+        if (operand instanceof IRConstantOperand) {
+            IRConstantOperand constant = (IRConstantOperand) operand;
+            return new IRConstantOperand(constant.type, constant.getValueString(), parent);
+        }
+        return new IRFunctionOperand(((IRFunctionOperand) operand).getName(), parent);
+    }
+
+    private static void removeUncalledFunctions(IRProgram program) {
+        CallGraph call_graph = new CallGraph(program);
+        List<IRFunction> kept = new ArrayList<>();
+        for (IRFunction function : program.functions) {
+            if (function.name.equals("main") || !call_graph.calls_to.get(function).isEmpty()) {
+                kept.add(function);
+            }
+        }
+        program.functions = kept;
+    }
+}
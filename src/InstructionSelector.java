@@ -1,8 +1,1080 @@
-import ir.*;
-import ir.operand.*;
-import java.util.Map;
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.Imm;
+import main.java.mips.operand.MIPSOperand;
+import main.java.mips.operand.Register;
 
 public class InstructionSelector {
-    
-}
\ No newline at end of file
+    // Tree pattern (BURS style) instruction selection, one basic block at a time
+        // 1. trees: every block is a DAG of expression nodes, a def whose only use comes later in the same block
+        //    (and nothing in between changes what it reads) gets folded into that use, everything else (vars
+        //    used twice, live out of the block) stays a root that writes its var, so the DAG is cut into trees
+        //    at its shared nodes
+        // 2. label: bottom-up every node gets the cheapest rule for each nonterminal (REG: the value is in a
+        //    register, STMT: a root done for its effect), cost = rule cost + what its leaves cost
+        // 3. reduce: top-down from each root, the rule picked says which nonterminal every leaf has to be,
+        //    leaves are reduced first (left to right), then the rule emits its instructions
+        // the rules are a table (see defaultRules / addRule), a new tile is a new row, not a new case
+        // costs are rough cycles: 1 per ALU op/load/store/branch, mul 4, div 12
+        // constants: 0 is $zero, anything else is li'd into a temp once per block and reused after that
+        // IR vars are virtual registers named after the var, the temps we need in between are %1, %2, ...
+        // labels get the function name tacked on (loop0 in main is loop0_main), .s labels are global
+        // calls: args in $a0-$a3, the rest in the outgoing arg words (see Frame), the result comes back in $v0,
+        // the intrinsics are syscalls
+        // return: the value goes in $v0, then jr $ra (Frame.finish puts the epilogue in front of it), main
+        // exits through the exit syscall instead
+    public enum Kind {
+        VAR, CONST, // leaves
+        ADD, SUB, MULT, DIV, AND, OR,
+        LOAD, // kids: array, index (the element at array + 4*index)
+        MEM, // kid: an address (the running pointer of an induction variable, see InductionVariables), value: offset
+        MOVE, // root: var = kid
+        STORE, // root, kids: value, array, index
+        MEM_STORE, // root, kids: value, address, value: offset
+        BREQ, BRNEQ, BRLT, BRGT, BRGEQ, // roots, kids: the two values compared
+        GOTO, LABEL, RETURN, // RETURN has the value it returns as its kid (if any)
+        CALL, // root: CALL/CALLR (the args are read straight from their vars)
+        ARRAY_INIT // root: assign A, size, value
+    }
+
+    // nonterminals
+    public static final int REG = 0;
+    public static final int STMT = 1;
+    private static final int NUM_NONTERMINALS = 2;
+    private static final int INFINITE = Integer.MAX_VALUE / 2;
+
+    public static class Node {
+        public Kind kind;
+        public List<Node> kids = new ArrayList<>();
+        public String name; // VAR: the var, MOVE: the var it writes, branches/GOTO/LABEL: the label
+        public int value; // CONST, the offset of MEM/MEM_STORE
+        public IRInstruction instruc; // roots: the instruction they came from
+        public Register target; // where the value should go if the rule makes a new one (null: a fresh temp)
+        private boolean folded = false; // a MOVE root whose tree went into its use
+        private int[] cost = new int[NUM_NONTERMINALS];
+        private Rule[] rule = new Rule[NUM_NONTERMINALS];
+        private Register result; // REG after reduce (every node of a tree is reduced once)
+        private boolean starts_block = false; // roots: first instruction of a basic block
+
+        public Node(Kind kind, Node... kids) {
+            this.kind = kind;
+            this.kids.addAll(List.of(kids));
+        }
+    }
+
+    public static class Pattern {
+        public Kind kind; // null for a nonterminal leaf (matches any node that can be that nonterminal)
+        public int nonterminal;
+        public IntPredicate when; // for CONST: which values it matches
+        public Pattern[] kids;
+
+        private Pattern(Kind kind, int nonterminal, IntPredicate when, Pattern... kids) {
+            this.kind = kind;
+            this.nonterminal = nonterminal;
+            this.when = when;
+            this.kids = kids;
+        }
+    }
+
+    public static Pattern reg() {
+        return new Pattern(null, REG, null);
+    }
+
+    public static Pattern constant(IntPredicate when) {
+        return new Pattern(Kind.CONST, -1, when);
+    }
+
+    public static Pattern tree(Kind kind, Pattern... kids) {
+        return new Pattern(kind, -1, null, kids);
+    }
+
+    public interface Emitter {
+        // emits the code for a match, returns the register holding the value (null for STMT rules)
+        Register emit(Match match);
+    }
+
+    public static class Rule {
+        public int nonterminal; // what the matched tree becomes
+        public Pattern pattern;
+        public int cost;
+        public Emitter emitter;
+
+        public Rule(int nonterminal, Pattern pattern, int cost, Emitter emitter) {
+            this.nonterminal = nonterminal;
+            this.pattern = pattern;
+            this.cost = cost;
+            this.emitter = emitter;
+        }
+    }
+
+    // what a rule's emitter gets: the node it matched and its leaves (left to right as in the pattern)
+    public class Match {
+        public Node node;
+        public List<Node> leaves = new ArrayList<>();
+        private List<Integer> leaf_nonterminals = new ArrayList<>(); // -1 for leaves that are matched as is (CONST)
+        private List<Register> regs = new ArrayList<>();
+
+        public Match(Node node) {
+            this.node = node;
+        }
+
+        public Register reg(int leaf) {
+            return regs.get(leaf);
+        }
+
+        public int value(int leaf) {
+            return leaves.get(leaf).value;
+        }
+
+        // where to put a new value
+        public Register target() {
+            return (node.target != null) ? node.target : newTemp();
+        }
+
+        public Register temp() {
+            return newTemp();
+        }
+
+        // a register holding value (the li only happens the first time the block needs it)
+        public Register constant(int value) {
+            if (value == 0) {
+                return new Register("$zero", false);
+            }
+            Register reg = block_constants.get(value);
+            if (reg == null) {
+                reg = newTemp();
+                emit(MIPSOp.LI, reg, imm(value));
+                block_constants.put(value, reg);
+            }
+            return reg;
+        }
+
+        // base + 4*index, computed once per block as long as neither base nor index changes
+        public Register elementAddress(Register base, Register index) {
+            String key = base.name + "+4*" + index.name;
+            Register address = block_addresses.get(key);
+            if (address == null) {
+                address = newTemp();
+                emit(MIPSOp.SLL, address, index, imm(2));
+                emit(MIPSOp.ADD, address, base, address);
+                block_addresses.put(key, address);
+            }
+            return address;
+        }
+
+        public void emit(MIPSOp op, MIPSOperand... operands) {
+            add(new MIPSInstruction(op, null, operands));
+        }
+
+        public void emitLabel(String label) {
+            add(new MIPSInstruction(MIPSOp.LABEL, label));
+        }
+
+        public IRFunction function() {
+            return function;
+        }
+
+        public Frame frame() {
+            return frame;
+        }
+
+        // a label nobody else uses
+        public String newLabel(String name) {
+            return function.name + "__" + name + (++num_labels);
+        }
+    }
+
+    private static Map<Kind, List<Rule>> rules = new EnumMap<>(Kind.class);
+    private static List<Rule> chain_rules = new ArrayList<>(); // patterns that are a bare nonterminal
+    static {
+        defaultRules();
+    }
+
+    public static void addRule(int nonterminal, Pattern pattern, int cost, Emitter emitter) {
+        Rule rule = new Rule(nonterminal, pattern, cost, emitter);
+        if (pattern.kind == null) {
+            chain_rules.add(rule);
+        } else {
+            rules.computeIfAbsent(pattern.kind, k -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    public static Imm imm(int value) {
+        return new Imm("" + value, "DEC");
+    }
+
+    public static boolean fitsSigned16(int value) {
+        return value >= -32768 && value <= 32767;
+    }
+
+    public static boolean fitsUnsigned16(int value) {
+        return value >= 0 && value <= 65535;
+    }
+
+    public static boolean isPowerOfTwo(int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    public static boolean isScaledOffset(int value) { // 4*value still fits in a load/store offset
+        return value >= -8192 && value <= 8191;
+    }
+
+    private static void defaultRules() {
+        addRule(REG, tree(Kind.VAR), 0, m -> new Register(m.node.name));
+        addRule(REG, constant(v -> true), 1, m -> {
+            if (m.node.target == null) {
+                return m.constant(m.node.value);
+            }
+            m.emit(MIPSOp.LI, m.node.target, imm(m.node.value));
+            return m.node.target;
+        });
+        addRule(REG, constant(v -> v == 0), 0, m -> {
+            if (m.node.target == null) {
+                return new Register("$zero", false);
+            }
+            m.emit(MIPSOp.LI, m.node.target, imm(0));
+            return m.node.target;
+        });
+
+        // reg, reg forms
+        Map<Kind, MIPSOp> alu_ops = Map.of(Kind.ADD, MIPSOp.ADD, Kind.SUB, MIPSOp.SUB, Kind.MULT, MIPSOp.MUL,
+                Kind.DIV, MIPSOp.DIV, Kind.AND, MIPSOp.AND, Kind.OR, MIPSOp.OR);
+        for (Kind kind : List.of(Kind.ADD, Kind.SUB, Kind.MULT, Kind.DIV, Kind.AND, Kind.OR)) {
+            int cost = (kind == Kind.MULT) ? 4 : (kind == Kind.DIV) ? 12 : 1;
+            addRule(REG, tree(kind, reg(), reg()), cost, m -> {
+                Register dest = m.target();
+                m.emit(alu_ops.get(kind), dest, m.reg(0), m.reg(1));
+                return dest;
+            });
+        }
+
+        // immediates (add, and, or commute so the constant can be on either side)
+        Map<Kind, MIPSOp> imm_ops = Map.of(Kind.ADD, MIPSOp.ADDI, Kind.AND, MIPSOp.ANDI, Kind.OR, MIPSOp.ORI);
+        for (Kind kind : List.of(Kind.ADD, Kind.AND, Kind.OR)) {
+            IntPredicate fits = (kind == Kind.ADD) ? InstructionSelector::fitsSigned16 : InstructionSelector::fitsUnsigned16;
+            addRule(REG, tree(kind, reg(), constant(fits)), 1, m -> {
+                Register dest = m.target();
+                m.emit(imm_ops.get(kind), dest, m.reg(0), imm(m.value(1)));
+                return dest;
+            });
+            addRule(REG, tree(kind, constant(fits), reg()), 1, m -> {
+                Register dest = m.target();
+                m.emit(imm_ops.get(kind), dest, m.reg(1), imm(m.value(0)));
+                return dest;
+            });
+        }
+
+        // x - c = x + -c
+        addRule(REG, tree(Kind.SUB, reg(), constant(v -> v != Integer.MIN_VALUE && fitsSigned16(-v))), 1, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.ADDI, dest, m.reg(0), imm(-m.value(1)));
+            return dest;
+        });
+
+        // x * 2^k = x << k
+        addRule(REG, tree(Kind.MULT, reg(), constant(InstructionSelector::isPowerOfTwo)), 1, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.SLL, dest, m.reg(0), imm(Integer.numberOfTrailingZeros(m.value(1))));
+            return dest;
+        });
+        addRule(REG, tree(Kind.MULT, constant(InstructionSelector::isPowerOfTwo), reg()), 1, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.SLL, dest, m.reg(1), imm(Integer.numberOfTrailingZeros(m.value(0))));
+            return dest;
+        });
+
+        // x * c for a c with few bits set (in binary or as a sum of +/- powers of two) = shifts and adds
+        addRule(REG, tree(Kind.MULT, reg(), constant(v -> shiftAddCost(v) <= 3)), 3, m -> {
+            Register dest = m.target();
+            emitShiftAdd(m, dest, m.reg(0), m.value(1));
+            return dest;
+        });
+        addRule(REG, tree(Kind.MULT, constant(v -> shiftAddCost(v) <= 3), reg()), 3, m -> {
+            Register dest = m.target();
+            emitShiftAdd(m, dest, m.reg(1), m.value(0));
+            return dest;
+        });
+        // NOTE: no x / 2^k as a shift, the simulator has no sra (see MIPSOp) so division by a constant stays a div
+
+        // array elements: base + 4*index, an index of i +/- c goes into the offset of the lw/sw and a constant
+        // index needs no address at all (A[k] is 4k(A))
+        addRule(REG, tree(Kind.LOAD, reg(), reg()), 3, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.LW, dest, new Addr(imm(0), m.elementAddress(m.reg(0), m.reg(1))));
+            return dest;
+        });
+        addRule(REG, tree(Kind.LOAD, reg(), tree(Kind.ADD, reg(), constant(InstructionSelector::isScaledOffset))), 3, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.LW, dest, new Addr(imm(4 * m.value(2)), m.elementAddress(m.reg(0), m.reg(1))));
+            return dest;
+        });
+        addRule(REG, tree(Kind.LOAD, reg(), tree(Kind.ADD, constant(InstructionSelector::isScaledOffset), reg())), 3, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.LW, dest, new Addr(imm(4 * m.value(1)), m.elementAddress(m.reg(0), m.reg(2))));
+            return dest;
+        });
+        addRule(REG, tree(Kind.LOAD, reg(), tree(Kind.SUB, reg(), constant(InstructionSelector::isScaledOffset))), 3, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.LW, dest, new Addr(imm(-4 * m.value(2)), m.elementAddress(m.reg(0), m.reg(1))));
+            return dest;
+        });
+        addRule(REG, tree(Kind.LOAD, reg(), constant(InstructionSelector::isScaledOffset)), 1, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.LW, dest, new Addr(imm(4 * m.value(1)), m.reg(0)));
+            return dest;
+        });
+        addRule(REG, tree(Kind.MEM, reg()), 1, m -> {
+            Register dest = m.target();
+            m.emit(MIPSOp.LW, dest, new Addr(imm(m.node.value), m.reg(0)));
+            return dest;
+        });
+
+        addRule(STMT, tree(Kind.MOVE, reg()), 0, m -> {
+            Register dest = new Register(m.node.name);
+            if (!m.reg(0).equals(dest)) {
+                m.emit(MIPSOp.MOVE, dest, m.reg(0));
+            }
+            return null;
+        });
+        addRule(STMT, tree(Kind.STORE, reg(), reg(), reg()), 3, m -> {
+            m.emit(MIPSOp.SW, m.reg(0), new Addr(imm(0), m.elementAddress(m.reg(1), m.reg(2))));
+            return null;
+        });
+        addRule(STMT, tree(Kind.STORE, reg(), reg(), tree(Kind.ADD, reg(), constant(InstructionSelector::isScaledOffset))), 3, m -> {
+            m.emit(MIPSOp.SW, m.reg(0), new Addr(imm(4 * m.value(3)), m.elementAddress(m.reg(1), m.reg(2))));
+            return null;
+        });
+        addRule(STMT, tree(Kind.STORE, reg(), reg(), tree(Kind.ADD, constant(InstructionSelector::isScaledOffset), reg())), 3, m -> {
+            m.emit(MIPSOp.SW, m.reg(0), new Addr(imm(4 * m.value(2)), m.elementAddress(m.reg(1), m.reg(3))));
+            return null;
+        });
+        addRule(STMT, tree(Kind.STORE, reg(), reg(), tree(Kind.SUB, reg(), constant(InstructionSelector::isScaledOffset))), 3, m -> {
+            m.emit(MIPSOp.SW, m.reg(0), new Addr(imm(-4 * m.value(3)), m.elementAddress(m.reg(1), m.reg(2))));
+            return null;
+        });
+        addRule(STMT, tree(Kind.STORE, reg(), reg(), constant(InstructionSelector::isScaledOffset)), 1, m -> {
+            m.emit(MIPSOp.SW, m.reg(0), new Addr(imm(4 * m.value(2)), m.reg(1)));
+            return null;
+        });
+        addRule(STMT, tree(Kind.MEM_STORE, reg(), reg()), 1, m -> {
+            m.emit(MIPSOp.SW, m.reg(0), new Addr(imm(m.node.value), m.reg(1)));
+            return null;
+        });
+
+        // compare and branch, a == b is the same as a - b == 0 (not for <, > since a - b can wrap)
+        Map<Kind, MIPSOp> branch_ops = Map.of(Kind.BREQ, MIPSOp.BEQ, Kind.BRNEQ, MIPSOp.BNE, Kind.BRLT, MIPSOp.BLT,
+                Kind.BRGT, MIPSOp.BGT, Kind.BRGEQ, MIPSOp.BGE);
+        for (Kind kind : List.of(Kind.BREQ, Kind.BRNEQ, Kind.BRLT, Kind.BRGT, Kind.BRGEQ)) {
+            addRule(STMT, tree(kind, reg(), reg()), 1, m -> {
+                m.emit(branch_ops.get(kind), m.reg(0), m.reg(1), new Addr(m.node.name));
+                return null;
+            });
+        }
+        for (Kind kind : List.of(Kind.BREQ, Kind.BRNEQ)) {
+            addRule(STMT, tree(kind, tree(Kind.SUB, reg(), reg()), constant(v -> v == 0)), 1, m -> {
+                m.emit(branch_ops.get(kind), m.reg(0), m.reg(1), new Addr(m.node.name));
+                return null;
+            });
+        }
+
+        addRule(STMT, tree(Kind.GOTO), 1, m -> {
+            m.emit(MIPSOp.J, new Addr(m.node.name));
+            return null;
+        });
+        addRule(STMT, tree(Kind.LABEL), 0, m -> {
+            m.emitLabel(m.node.name);
+            return null;
+        });
+        addRule(STMT, tree(Kind.RETURN), 1, m -> {
+            emitReturn(m, null);
+            return null;
+        });
+        addRule(STMT, tree(Kind.RETURN, reg()), 2, m -> {
+            emitReturn(m, m.reg(0));
+            return null;
+        });
+        addRule(STMT, tree(Kind.CALL), 2, m -> {
+            emitCall(m);
+            return null;
+        });
+        addRule(STMT, tree(Kind.ARRAY_INIT), 3, m -> {
+            emitArrayInit(m);
+            return null;
+        });
+    }
+
+    /* c as a sum of signed powers of two, biggest first
+        - an entry k means +2^k, ~k means -2^k (~ so that -2^0 is not 0), e.g. 7 = 8 - 1 is {3, ~0}
+        - we take the non adjacent form (fewest nonzero digits) unless plain binary has as few
+        - empty if c < 3 (0, 1, 2 and negatives are not worth it) */
+    public static List<Integer> shiftAddTerms(int c) {
+        List<Integer> terms = new ArrayList<>();
+        if (c < 3) {
+            return terms;
+        }
+        long n = c;
+        for (int k = 0; n != 0; k++, n >>= 1) {
+            if ((n & 1) != 0) {
+                if ((n & 3) == 3) { // ...11 -> add the next power, subtract this one
+                    terms.add(0, ~k);
+                    n += 1;
+                } else {
+                    terms.add(0, k);
+                    n -= 1;
+                }
+            }
+        }
+        if (Integer.bitCount(c) <= terms.size()) {
+            terms.clear();
+            for (int k = 31; k >= 0; k--) {
+                if ((c & (1 << k)) != 0) {
+                    terms.add(k);
+                }
+            }
+        }
+        return terms;
+    }
+
+    // instructions emitShiftAdd needs for x * c: one sll per shifted term, one add/sub per term after the first
+    public static int shiftAddCost(int c) {
+        List<Integer> terms = shiftAddTerms(c);
+        if (terms.isEmpty() || isPowerOfTwo(c)) {
+            return INFINITE;
+        }
+        int cost = terms.size() - 1;
+        for (int term : terms) {
+            cost += (term != 0 && term != ~0) ? 1 : 0;
+        }
+        return cost;
+    }
+
+    // dest = x * c, only the last instruction writes dest (dest can be x)
+    private static void emitShiftAdd(Match m, Register dest, Register x, int c) {
+        List<Integer> terms = shiftAddTerms(c);
+        Register sum = null;
+        for (int i = 0; i < terms.size(); i++) {
+            int shift = (terms.get(i) < 0) ? ~terms.get(i) : terms.get(i);
+            boolean last = i == terms.size() - 1;
+            Register term = x;
+            if (shift != 0) {
+                term = (sum == null && last) ? dest : m.temp();
+                m.emit(MIPSOp.SLL, term, x, imm(shift));
+            }
+            if (sum == null) {
+                sum = term; // the biggest term is always positive
+                continue;
+            }
+            Register next = last ? dest : m.temp();
+            m.emit((terms.get(i) < 0) ? MIPSOp.SUB : MIPSOp.ADD, next, sum, term);
+            sum = next;
+        }
+    }
+
+    // main exits through the exit syscall, everything else puts the value (if any) in $v0 and jumps back
+    private static void emitReturn(Match m, Register value) {
+        Register v0 = new Register("$v0", false);
+        if (m.function().name.equals("main")) {
+            m.emit(MIPSOp.LI, v0, imm(10));
+            m.emit(MIPSOp.SYSCALL);
+            return;
+        }
+        if (value != null && !value.equals(v0)) {
+            m.emit(MIPSOp.MOVE, v0, value);
+        }
+        m.emit(MIPSOp.JR, new Register("$ra", false));
+    }
+
+    // intrinsic -> syscall number (puti/putc print $a0, geti/getc read into $v0)
+    private static final Map<String, Integer> SYSCALLS = Map.of("puti", 1, "geti", 5, "putc", 11, "getc", 12);
+
+    /* CALL f, args... / CALLR x, f, args...
+        - arg i goes in $a<i> if i < 4, else in the outgoing arg word 4*i($sp)
+        - intrinsics are a syscall, anything else a jal
+        - CALLR picks the result up from $v0 */
+    private static void emitCall(Match m) {
+        IRInstruction instruc = m.node.instruc;
+        boolean has_result = instruc.opCode == IRInstruction.OpCode.CALLR;
+        int first_arg = has_result ? 2 : 1;
+        String callee = CallGraph.calleeName(instruc);
+        if (callee.equals("putf") || callee.equals("getf")) {
+            throw new IllegalStateException("floats are not supported: " + callee);
+        }
+        for (int i = first_arg; i < instruc.operands.length; i++) {
+            int arg = i - first_arg;
+            IROperand operand = instruc.operands[i];
+            if (arg < 4) {
+                Register arg_reg = new Register("$a" + arg, false);
+                if (operand instanceof IRConstantOperand) {
+                    m.emit(MIPSOp.LI, arg_reg, imm(Integer.decode(((IRConstantOperand) operand).getValueString())));
+                } else {
+                    m.emit(MIPSOp.MOVE, arg_reg, new Register(((IRVariableOperand) operand).getName()));
+                }
+            } else {
+                Register value = (operand instanceof IRConstantOperand)
+                        ? m.constant(Integer.decode(((IRConstantOperand) operand).getValueString()))
+                        : new Register(((IRVariableOperand) operand).getName());
+                m.emit(MIPSOp.SW, value, new Addr(imm(4 * arg), new Register("$sp", false)));
+            }
+        }
+        Register v0 = new Register("$v0", false);
+        Integer syscall = SYSCALLS.get(callee);
+        if (syscall != null) {
+            m.emit(MIPSOp.LI, v0, imm(syscall));
+            m.emit(MIPSOp.SYSCALL);
+        } else {
+            m.emit(MIPSOp.JAL, new Addr(callee));
+        }
+        if (has_result) {
+            m.emit(MIPSOp.MOVE, new Register(((IRVariableOperand) instruc.operands[0]).getName()), v0);
+        }
+    }
+
+    // assign A, size, value: one sw per element for small arrays, a loop over the words for bigger ones
+        // (or for a size in a var, that loop gets its end from the var and is skipped when the size is <= 0)
+    private static void emitArrayInit(Match m) {
+        IROperand[] operands = m.node.instruc.operands;
+        Register array = new Register(((IRVariableOperand) operands[0]).getName());
+        Register value = (operands[2] instanceof IRConstantOperand)
+                ? m.constant(Integer.decode(((IRConstantOperand) operands[2]).getValueString()))
+                : new Register(((IRVariableOperand) operands[2]).getName());
+        if (operands[1] instanceof IRVariableOperand) {
+            Register count = new Register(((IRVariableOperand) operands[1]).getName());
+            Register pointer = m.temp();
+            Register end = m.temp();
+            String loop = m.newLabel("init");
+            String done = m.newLabel("init_done");
+            m.emit(MIPSOp.BGE, m.constant(0), count, new Addr(done));
+            m.emit(MIPSOp.SLL, end, count, imm(2));
+            m.emit(MIPSOp.ADD, end, array, end);
+            m.emit(MIPSOp.MOVE, pointer, array);
+            m.emitLabel(loop);
+            m.emit(MIPSOp.SW, value, new Addr(imm(0), pointer));
+            m.emit(MIPSOp.ADDI, pointer, pointer, imm(4));
+            m.emit(MIPSOp.BNE, pointer, end, new Addr(loop));
+            m.emitLabel(done);
+            return;
+        }
+        fillWords(m, array, Integer.decode(((IRConstantOperand) operands[1]).getValueString()), value);
+    }
+
+    // value into the first size words of array
+    private static void fillWords(Match m, Register array, int size, Register value) {
+        if (size <= 8) {
+            for (int k = 0; k < size; k++) {
+                m.emit(MIPSOp.SW, value, new Addr(imm(4 * k), array));
+            }
+            return;
+        }
+        Register pointer = m.temp();
+        Register end = m.temp();
+        m.emit(MIPSOp.MOVE, pointer, array);
+        if (fitsSigned16(4 * size)) {
+            m.emit(MIPSOp.ADDI, end, array, imm(4 * size));
+        } else {
+            m.emit(MIPSOp.LI, end, imm(4 * size));
+            m.emit(MIPSOp.ADD, end, array, end);
+        }
+        // bne, not blt: the end of an array at the top of the stack is 0x80000000 (negative as a signed word)
+        String loop = m.newLabel("init");
+        m.emitLabel(loop);
+        m.emit(MIPSOp.SW, value, new Addr(imm(0), pointer));
+        m.emit(MIPSOp.ADDI, pointer, pointer, imm(4));
+        m.emit(MIPSOp.BNE, pointer, end, new Addr(loop));
+    }
+
+    private IRFunction function;
+    private Frame frame;
+    private InductionVariables iv_plan;
+    private List<MIPSInstruction> code = new ArrayList<>();
+    // origins.get(i): the IR instruction code[i] came from (null for the entry code and the implicit return),
+        // what the allocators go by to find out how often it runs (see ExecutionProfile.spillWeight)
+    public List<IRInstruction> origins = new ArrayList<>();
+    private IRInstruction current_instruc;
+    private int num_temps = 0;
+    private int num_labels = 0;
+    private IRcfg cfg;
+    private Liveness liveness;
+    private Map<Integer, Register> block_constants = new HashMap<>(); // constants the current block already has in a temp
+    private Map<String, Register> block_addresses = new HashMap<>(); // "A+4*i" -> temp holding that element's address
+
+    public InstructionSelector(IRFunction function, Frame frame, InductionVariables iv_plan) {
+        this.function = function;
+        this.frame = frame;
+        this.iv_plan = iv_plan;
+    }
+
+    // every instruction goes through here so addresses built from a register that just changed are forgotten
+    private void add(MIPSInstruction instruc) {
+        code.add(instruc);
+        origins.add(current_instruc);
+        Register written = instruc.getWrite();
+        if (written != null) {
+            block_addresses.values().remove(written);
+            block_addresses.keySet().removeIf(key -> key.startsWith(written.name + "+4*") || key.endsWith("+4*" + written.name));
+        }
+    }
+
+    private Register newTemp() {
+        return new Register("%" + (++num_temps));
+    }
+
+    // The code for the function body (everything after the prologue), in virtual registers
+    public List<MIPSInstruction> select() {
+        cfg = new IRcfg(function);
+        liveness = new Liveness(cfg);
+        emitEntry();
+        for (Node root : buildTrees()) {
+            if (root.starts_block) {
+                block_constants.clear();
+                block_addresses.clear();
+            }
+            if (root.folded || iv_plan.isDead(root.instruc)) {
+                continue;
+            }
+            current_instruc = root.instruc;
+            // before we enter a loop set up its running array pointers: pointer = array + 4*scale*iv
+            for (InductionVariables.PointerIV pointer : iv_plan.initsBefore(root.instruc)) {
+                Register pointer_reg = new Register(pointer.pointer);
+                if (pointer.scale > 0 && Integer.bitCount(pointer.scale) == 1) {
+                    add(new MIPSInstruction(MIPSOp.SLL, null, pointer_reg, new Register(pointer.iv), imm(2 + Integer.numberOfTrailingZeros(pointer.scale))));
+                } else {
+                    add(new MIPSInstruction(MIPSOp.LI, null, pointer_reg, imm(4 * pointer.scale)));
+                    add(new MIPSInstruction(MIPSOp.MUL, null, pointer_reg, new Register(pointer.iv), pointer_reg));
+                }
+                add(new MIPSInstruction(MIPSOp.ADD, null, pointer_reg, new Register(pointer.array), pointer_reg));
+            }
+            label(root);
+            if (root.cost[STMT] >= INFINITE) {
+                throw new IllegalStateException("no rule covers " + root.instruc);
+            }
+            reduce(root, STMT);
+            // the induction variable just moved so move every pointer built on it by 4*scale*step
+            for (InductionVariables.PointerIV pointer : iv_plan.bumpsAfter(root.instruc)) {
+                Register pointer_reg = new Register(pointer.pointer);
+                add(new MIPSInstruction(MIPSOp.ADDI, null, pointer_reg, pointer_reg, imm(4 * pointer.scale * pointer.step)));
+            }
+        }
+        // falling off the end is a return
+        current_instruc = null;
+        List<IRInstruction> instructions = function.instructions;
+        IRInstruction.OpCode last = instructions.isEmpty() ? null : instructions.get(instructions.size() - 1).opCode;
+        if (last != IRInstruction.OpCode.RETURN && last != IRInstruction.OpCode.GOTO) {
+            emitReturn(new Match(null), null);
+        }
+        return code;
+    }
+
+    /* before the first instruction:
+        - params come out of $a0-$a3 and the caller's outgoing arg words
+        - our arrays get their address in the frame
+        - vars that can be read before anything writes them start at 0 (like in the IR interpreter), our arrays
+          too unless nothing reads them or the function starts by initializing all of them */
+    private void emitEntry() {
+        Register sp = new Register("$sp", false);
+        for (int i = 0; i < function.parameters.size(); i++) {
+            Register param = new Register(function.parameters.get(i).getName());
+            if (i < 4) {
+                add(new MIPSInstruction(MIPSOp.MOVE, null, param, new Register("$a" + i, false)));
+            } else {
+                add(new MIPSInstruction(MIPSOp.LW, null, param, new Addr(imm(4 * i), new Register("$fp", false))));
+            }
+        }
+        for (Map.Entry<String, Integer> array : frame.arrayOffsets().entrySet()) {
+            add(new MIPSInstruction(MIPSOp.ADDI, null, new Register(array.getKey()), sp, imm(array.getValue())));
+        }
+        for (IRVariableOperand var : function.variables) {
+            if (frame.arrayOffsets().containsKey(var.getName()) && readBeforeInit(var)) {
+                fillWords(new Match(null), new Register(var.getName()), ((IRArrayType) var.type).getSize(), new Register("$zero", false));
+            }
+        }
+        if (cfg.nodes.isEmpty()) {
+            return;
+        }
+        Set<String> live_in = liveness.liveIn(cfg.nodes.get(0));
+        for (IRVariableOperand var : function.variables) {
+            if (live_in.contains(var.getName()) && !(var.type instanceof IRArrayType) && !frame.isParameter(var.getName())) {
+                add(new MIPSInstruction(MIPSOp.LI, null, new Register(var.getName()), imm(0)));
+            }
+        }
+    }
+
+    // can a load (ours or a callee's) see the array before we put anything in it: false when nothing loads from it
+        // or when a whole-array init comes before the first label, branch or call
+        // (and in main, it runs once on stack nothing has used yet and memory starts at 0, see emitReturn)
+    private boolean readBeforeInit(IRVariableOperand array) {
+        if (function.name.equals("main")) {
+            return false;
+        }
+        boolean read = false;
+        for (IRInstruction instruc : function.instructions) {
+            switch (instruc.opCode) {
+                case ARRAY_LOAD -> read |= instruc.operands[1].toString().equals(array.getName());
+                case CALL, CALLR -> read |= Arrays.stream(instruc.operands).anyMatch(arg -> arg.toString().equals(array.getName()));
+                default -> { }
+            }
+        }
+        if (!read) {
+            return false;
+        }
+        int size = ((IRArrayType) array.type).getSize();
+        for (IRInstruction instruc : function.instructions) {
+            switch (instruc.opCode) {
+                case ASSIGN -> {
+                    IROperand[] operands = instruc.operands;
+                    if (operands.length > 2 && operands[0].toString().equals(array.getName()) && operands[1] instanceof IRConstantOperand
+                            && Integer.decode(((IRConstantOperand) operands[1]).getValueString()) >= size) {
+                        return false;
+                    }
+                }
+                case ADD, SUB, MULT, DIV, AND, OR, ARRAY_STORE -> { }
+                default -> {
+                    return true; // a label, branch, call, return or load of an array
+                }
+            }
+        }
+        return true;
+    }
+
+    // IR labels are per function, ours are not
+    private String labelName(IROperand label) {
+        return ((IRLabelOperand) label).getName() + "_" + function.name;
+    }
+
+    // ---- step 1: trees ----
+
+    // one root per instruction, in order (roots of folded defs are marked and skipped)
+    private List<Node> buildTrees() {
+        List<IRInstruction> instructions = function.instructions;
+        boolean[] leaders = ExecutionProfile.leaders(function);
+        List<Node> roots = new ArrayList<>();
+        Map<String, Node> pending = new HashMap<>(); // var -> MOVE root waiting to be folded into the var's use
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruc = instructions.get(i);
+            if (leaders[i]) {
+                pending.clear();
+            }
+            Node root = buildRoot(instruc, pending);
+            root.starts_block = leaders[i];
+            roots.add(root);
+
+            // pending trees that cannot move past this instruction stay where they are
+            String written = writtenVar(instruc);
+            boolean writes_memory = writesMemory(instruc);
+            pending.values().removeIf(move -> (written != null && readsVar(move.kids.get(0), written))
+                    || (writes_memory && readsMemory(move.kids.get(0))));
+            if (root.kind == Kind.MOVE && canFold(instructions, i, leaders)) {
+                pending.put(root.name, root);
+            }
+        }
+        return roots;
+    }
+
+    private Node buildRoot(IRInstruction instruc, Map<String, Node> pending) {
+        IROperand[] operands = instruc.operands;
+        Node root;
+        switch (instruc.opCode) {
+            case ASSIGN -> {
+                if (operands.length > 2) {
+                    root = readOperands(Kind.ARRAY_INIT, instruc, pending);
+                } else {
+                    root = move(operands[0], operand(operands[1], pending));
+                }
+            }
+            case ADD, SUB, MULT, DIV, AND, OR -> {
+                Node value = new Node(Kind.valueOf(instruc.opCode.name()), operand(operands[1], pending), operand(operands[2], pending));
+                root = move(operands[0], value);
+            }
+            case ARRAY_LOAD -> {
+                InductionVariables.PointerIV pointer = iv_plan.pointerFor(instruc);
+                Node value;
+                if (pointer != null) { // index is an induction variable so the running pointer already holds base + 4*index
+                    value = new Node(Kind.MEM, var(pointer.pointer));
+                    value.value = iv_plan.offsetFor(instruc);
+                } else {
+                    value = new Node(Kind.LOAD, operand(operands[1], pending), operand(operands[2], pending));
+                }
+                root = move(operands[0], value);
+            }
+            case ARRAY_STORE -> {
+                InductionVariables.PointerIV pointer = iv_plan.pointerFor(instruc);
+                if (pointer != null) {
+                    root = new Node(Kind.MEM_STORE, operand(operands[0], pending), var(pointer.pointer));
+                    root.value = iv_plan.offsetFor(instruc);
+                } else {
+                    root = new Node(Kind.STORE, operand(operands[0], pending), operand(operands[1], pending), operand(operands[2], pending));
+                }
+            }
+            case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                root = new Node(Kind.valueOf(instruc.opCode.name()), operand(operands[1], pending), operand(operands[2], pending));
+                root.name = labelName(operands[0]);
+            }
+            case GOTO, LABEL -> {
+                root = new Node(Kind.valueOf(instruc.opCode.name()));
+                root.name = labelName(operands[0]);
+            }
+            case RETURN -> {
+                root = new Node(Kind.RETURN);
+                if (operands.length > 0) {
+                    Node value = operand(operands[0], pending);
+                    if (!function.name.equals("main")) {
+                        value.target = new Register("$v0", false);
+                    }
+                    root.kids.add(value);
+                }
+            }
+            case CALL, CALLR -> root = readOperands(Kind.CALL, instruc, pending);
+            default -> throw new IllegalStateException("can not select " + instruc.opCode);
+        }
+        root.instruc = instruc;
+        return root;
+    }
+
+    private static Node var(String name) {
+        Node node = new Node(Kind.VAR);
+        node.name = name;
+        return node;
+    }
+
+    private static Node move(IROperand dest, Node value) {
+        Node root = new Node(Kind.MOVE, value);
+        root.name = ((IRVariableOperand) dest).getName();
+        value.target = new Register(root.name);
+        return root;
+    }
+
+    // a var that has a pending tree gets that tree (its MOVE root will not be emitted)
+    private static Node operand(IROperand operand, Map<String, Node> pending) {
+        if (operand instanceof IRConstantOperand) {
+            Node node = new Node(Kind.CONST);
+            node.value = Integer.decode(((IRConstantOperand) operand).getValueString());
+            return node;
+        }
+        String name = ((IRVariableOperand) operand).getName();
+        Node move = pending.remove(name);
+        if (move == null) {
+            return var(name);
+        }
+        move.folded = true;
+        Node value = move.kids.get(0);
+        value.target = null;
+        return value;
+    }
+
+    // a root that reads its operands itself (no trees): whatever it reads has to be in its var
+    private static Node readOperands(Kind kind, IRInstruction instruc, Map<String, Node> pending) {
+        for (IROperand operand : instruc.operands) {
+            if (operand instanceof IRVariableOperand) {
+                pending.remove(((IRVariableOperand) operand).getName());
+            }
+        }
+        return new Node(kind);
+    }
+
+    // operand positions buildRoot turns into trees (the rest are read straight from their var, or not at all)
+    private List<Integer> treeOperands(IRInstruction instruc) {
+        switch (instruc.opCode) {
+            case ASSIGN -> {
+                return (instruc.operands.length == 2) ? List.of(1) : List.of();
+            }
+            case ADD, SUB, MULT, DIV, AND, OR, BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                return List.of(1, 2);
+            }
+            case ARRAY_LOAD -> {
+                return (iv_plan.pointerFor(instruc) != null) ? List.of() : List.of(1, 2);
+            }
+            case ARRAY_STORE -> {
+                return (iv_plan.pointerFor(instruc) != null) ? List.of(0) : List.of(0, 1, 2);
+            }
+            case RETURN -> {
+                return (instruc.operands.length > 0) ? List.of(0) : List.of();
+            }
+            default -> {
+                return List.of();
+            }
+        }
+    }
+
+    // the def at index i can be folded into its use: the next instruction in the block that mentions the var
+    // reads it exactly once (as a tree operand) and the var is dead after that
+    private boolean canFold(List<IRInstruction> instructions, int i, boolean[] leaders) {
+        IRInstruction def = instructions.get(i);
+        IRVariableOperand dest = (IRVariableOperand) def.operands[0];
+        if (dest.type instanceof IRArrayType || !iv_plan.initsBefore(def).isEmpty() || !iv_plan.bumpsAfter(def).isEmpty()
+                || iv_plan.pointerFor(def) != null) {
+            return false;
+        }
+        for (int j = i + 1; j < instructions.size() && !leaders[j]; j++) {
+            IRInstruction use = instructions.get(j);
+            List<Integer> reads = new ArrayList<>();
+            for (int k = 0; k < use.operands.length; k++) {
+                if (use.operands[k] instanceof IRVariableOperand && ((IRVariableOperand) use.operands[k]).getName().equals(dest.getName())) {
+                    reads.add(k);
+                }
+            }
+            if (reads.isEmpty()) {
+                continue;
+            }
+            // (for a def the dest is operand 0, a use that also writes the var is fine, the tree goes in first)
+            boolean writes = dest.getName().equals(writtenVar(use));
+            if (writes) {
+                reads.remove(Integer.valueOf(0));
+            }
+            return reads.size() == 1 && treeOperands(use).contains(reads.get(0))
+                    && (writes || !liveness.isLiveOut(cfg.nodes.get(j), dest.getName()));
+        }
+        return false;
+    }
+
+    private static String writtenVar(IRInstruction instruc) {
+        switch (instruc.opCode) {
+            case ASSIGN, ADD, SUB, MULT, DIV, AND, OR, CALLR, ARRAY_LOAD -> {
+                if (instruc.opCode == IRInstruction.OpCode.ASSIGN && instruc.operands.length > 2) {
+                    return null; // array init writes memory
+                }
+                return ((IRVariableOperand) instruc.operands[0]).getName();
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static boolean writesMemory(IRInstruction instruc) {
+        switch (instruc.opCode) {
+            case ARRAY_STORE, CALL, CALLR -> {
+                return true;
+            }
+            case ASSIGN -> {
+                return instruc.operands.length > 2;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean readsVar(Node node, String var) {
+        if (node.kind == Kind.VAR && node.name.equals(var)) {
+            return true;
+        }
+        for (Node kid : node.kids) {
+            if (readsVar(kid, var)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean readsMemory(Node node) {
+        if (node.kind == Kind.LOAD || node.kind == Kind.MEM) {
+            return true;
+        }
+        for (Node kid : node.kids) {
+            if (readsMemory(kid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- step 2: label ----
+
+    private void label(Node node) {
+        for (Node kid : node.kids) {
+            label(kid);
+        }
+        for (int nt = 0; nt < NUM_NONTERMINALS; nt++) {
+            node.cost[nt] = INFINITE;
+        }
+        for (Rule rule : rules.getOrDefault(node.kind, List.of())) {
+            int cost = matchCost(rule.pattern, node);
+            if (cost < INFINITE && rule.cost + cost < node.cost[rule.nonterminal]) {
+                node.cost[rule.nonterminal] = rule.cost + cost;
+                node.rule[rule.nonterminal] = rule;
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule rule : chain_rules) {
+                int cost = node.cost[rule.pattern.nonterminal];
+                if (cost < INFINITE && rule.cost + cost < node.cost[rule.nonterminal]) {
+                    node.cost[rule.nonterminal] = rule.cost + cost;
+                    node.rule[rule.nonterminal] = rule;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // what the leaves of pattern cost if node matches it, INFINITE if it does not match
+    private static int matchCost(Pattern pattern, Node node) {
+        if (pattern.kind == null) {
+            return node.cost[pattern.nonterminal];
+        }
+        if (node.kind != pattern.kind || node.kids.size() != pattern.kids.length
+                || (pattern.when != null && !pattern.when.test(node.value))) {
+            return INFINITE;
+        }
+        int cost = 0;
+        for (int i = 0; i < pattern.kids.length; i++) {
+            cost += matchCost(pattern.kids[i], node.kids.get(i));
+            if (cost >= INFINITE) {
+                return INFINITE;
+            }
+        }
+        return cost;
+    }
+
+    // ---- step 3: reduce ----
+
+    private Register reduce(Node node, int nonterminal) {
+        if (nonterminal == REG && node.result != null) {
+            return node.result;
+        }
+        Rule rule = node.rule[nonterminal];
+        Match match = new Match(node);
+        collectLeaves(rule.pattern, node, match, true);
+        for (int i = 0; i < match.leaves.size(); i++) {
+            int leaf_nonterminal = match.leaf_nonterminals.get(i);
+            match.regs.add((leaf_nonterminal < 0) ? null : reduce(match.leaves.get(i), leaf_nonterminal));
+        }
+        Register result = rule.emitter.emit(match);
+        if (nonterminal == REG) {
+            node.result = result;
+        }
+        return result;
+    }
+
+    private static void collectLeaves(Pattern pattern, Node node, Match match, boolean is_top) {
+        if (pattern.kind == null) {
+            match.leaves.add(node);
+            match.leaf_nonterminals.add(pattern.nonterminal);
+            return;
+        }
+        if (pattern.kids.length == 0 && !is_top) {
+            match.leaves.add(node);
+            match.leaf_nonterminals.add(-1);
+            return;
+        }
+        for (int i = 0; i < pattern.kids.length; i++) {
+            collectLeaves(pattern.kids[i], node.kids.get(i), match, false);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LICMPass implements FunctionPass {
+    // Loop invariant code motion: hoist arithmetic/copies (and array loads with no aliasing store
+    // in the loop) whose operands do not change inside a loop into a preheader in front of the loop.
+    /* x = y op z can be hoisted out of loop L when:
+        1. y and z are constants, are not defined in L, or are defined by one instruction we already hoisted
+        2. this is the only def of x in L
+        3. x is not live on entry to the header (so every use of x in L sees this def)
+        4. the instruction dominates every way out of L, OR it cannot trap and x is dead wherever we leave L
+           (DIV and ARRAY_LOAD can trap so they always need the domination check) */
+    public String getName() {
+        return "licm";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        boolean changed = false;
+        int max_rounds = function.instructions.size() + 1; // every round moves at least one instruction
+        while (max_rounds-- > 0 && hoistFromOneLoop(function, cache)) {
+            cache.invalidateAll(function);
+            changed = true;
+        }
+        return changed;
+    }
+
+    // hoists what it can out of the innermost loop that has anything to hoist
+    private boolean hoistFromOneLoop(IRFunction function, AnalysisCache cache) {
+        IRcfg cfg = cache.get(function, Analyses.CFG);
+        DominatorTree dom = cache.get(function, Analyses.DOMINATORS);
+        LoopForest loops = cache.get(function, Analyses.LOOPS);
+        Liveness liveness = cache.get(function, Analyses.LIVENESS);
+
+        for (LoopForest.Loop loop : loops.innermostFirst()) {
+            // if we can fall into the header from inside the loop there is no place to put a preheader
+            if (IRRewriter.fallsIntoHeader(cfg, loop)) {
+                continue;
+            }
+            List<IRNode> invariants = findHoistable(function, cfg, loop, dom, liveness,
+                    (SideEffects) cache.getProgramResult(SideEffects.NAME));
+            if (!invariants.isEmpty()) {
+                insertPreheader(function, loop, invariants);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<IRNode> findHoistable(IRFunction function, IRcfg cfg, LoopForest.Loop loop,
+                                       DominatorTree dom, Liveness liveness, SideEffects effects) {
+        // which nodes define each var inside the loop, and what memory the loop can write
+        Map<String, List<IRNode>> defs_in_loop = new HashMap<>();
+        List<String> stored_arrays = new ArrayList<>();
+        List<IRNode> leaving_nodes = new ArrayList<>(loop.exitingNodes());
+        for (IRNode node : loop.body) {
+            if (node.definedVar() != null) {
+                defs_in_loop.computeIfAbsent(node.definedVar(), k -> new ArrayList<>()).add(node);
+            }
+            IRInstruction instruc = node.instruction;
+            switch (instruc.opCode) {
+                case ARRAY_STORE -> stored_arrays.add(((IRVariableOperand) instruc.operands[1]).getName());
+                case CALL, CALLR -> {
+                    // the callee can write to any array we pass it (unless its summary says it does not)
+                    int first_arg = (instruc.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+                    for (int i = first_arg; i < instruc.operands.length; i++) {
+                        IROperand operand = instruc.operands[i];
+                        if (operand instanceof IRVariableOperand && isArray(operand)
+                                && (effects == null || effects.mayWriteArg(CallGraph.calleeName(instruc), i - first_arg))) {
+                            stored_arrays.add(((IRVariableOperand) operand).getName());
+                        }
+                    }
+                }
+                case RETURN -> leaving_nodes.add(node);
+                default -> {
+                    break;
+                }
+            }
+        }
+        Set<String> exit_live = new HashSet<>();
+        for (IRNode target : loop.exitTargets()) {
+            exit_live.addAll(liveness.liveIn(target));
+        }
+        Set<String> header_live = liveness.liveIn(loop.header);
+
+        // go over the loop in program order until nothing new turns out to be invariant
+        List<IRNode> body_in_order = new ArrayList<>();
+        for (IRNode node : cfg.nodes) {
+            if (loop.contains(node)) {
+                body_in_order.add(node);
+            }
+        }
+        List<IRNode> hoisted = new ArrayList<>(); // in an order where defs come before their uses
+        Set<IRNode> hoisted_set = new HashSet<>();
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (IRNode node : body_in_order) {
+                if (hoisted_set.contains(node) || !isCandidate(node.instruction)) {
+                    continue;
+                }
+                IRInstruction instruc = node.instruction;
+                String x = node.definedVar();
+                if (defs_in_loop.get(x).size() != 1 || header_live.contains(x)) {
+                    continue;
+                }
+                boolean operands_invariant = true;
+                for (int i = 1; i < instruc.operands.length; i++) {
+                    if (!isInvariantOperand(instruc.operands[i], defs_in_loop, hoisted_set)) {
+                        operands_invariant = false;
+                        break;
+                    }
+                }
+                if (!operands_invariant) {
+                    continue;
+                }
+                if (instruc.opCode == IRInstruction.OpCode.ARRAY_LOAD) {
+                    String array = ((IRVariableOperand) instruc.operands[1]).getName();
+                    boolean clobbered = false;
+                    for (String stored : stored_arrays) {
+                        if (ArrayAlias.mayAlias(function, array, stored)) {
+                            clobbered = true;
+                            break;
+                        }
+                    }
+                    if (clobbered) {
+                        continue;
+                    }
+                }
+                boolean dominates_exits = true;
+                for (IRNode leaving : leaving_nodes) {
+                    if (!dom.dominates(node, leaving)) {
+                        dominates_exits = false;
+                        break;
+                    }
+                }
+                if (!dominates_exits && (canTrap(instruc) || exit_live.contains(x))) {
+                    continue;
+                }
+                hoisted.add(node);
+                hoisted_set.add(node);
+                found = true;
+            }
+        }
+        return hoisted;
+    }
+
+    private static boolean isCandidate(IRInstruction instruc) {
+        switch (instruc.opCode) {
+            case ADD, SUB, MULT, DIV, AND, OR, ARRAY_LOAD -> {
+                return true;
+            }
+            case ASSIGN -> {
+                return instruc.operands.length == 2; // not an array init
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    // dividing by a non-zero constant or loading a constant index that is inside the array is always safe
+    // (a float constant can be written like 2.5 so parse it as a double, an index that isn't an int we leave alone)
+    private static boolean canTrap(IRInstruction instruc) {
+        if (instruc.opCode == IRInstruction.OpCode.DIV) {
+            IROperand divisor = instruc.operands[2];
+            return !(divisor instanceof IRConstantOperand) || Double.parseDouble(divisor.toString()) == 0;
+        }
+        if (instruc.opCode == IRInstruction.OpCode.ARRAY_LOAD) {
+            IROperand index = instruc.operands[2];
+            if (!(index instanceof IRConstantOperand) || ((IRConstantOperand) index).type != IRIntType.get()) {
+                return true;
+            }
+            int size = ((IRArrayType) ((IRVariableOperand) instruc.operands[1]).type).getSize();
+            int value = Integer.parseInt(index.toString());
+            return value < 0 || value >= size;
+        }
+        return false;
+    }
+
+    private static boolean isArray(IROperand operand) {
+        return ((IRVariableOperand) operand).type instanceof IRArrayType;
+    }
+
+    private static boolean isInvariantOperand(IROperand operand, Map<String, List<IRNode>> defs_in_loop, Set<IRNode> hoisted) {
+        if (!(operand instanceof IRVariableOperand)) {
+            return true; // constant
+        }
+        List<IRNode> defs = defs_in_loop.get(((IRVariableOperand) operand).getName());
+        if (defs == null) {
+            return true;
+        }
+        return defs.size() == 1 && hoisted.contains(defs.get(0));
+    }
+
+    private void insertPreheader(IRFunction function, LoopForest.Loop loop, List<IRNode> hoisted) {
+        Set<IRInstruction> moving = new HashSet<>();
+        List<IRInstruction> preheader = new ArrayList<>();
+        for (IRNode node : hoisted) {
+            moving.add(node.instruction);
+            preheader.add(node.instruction);
+        }
+        List<IRInstruction> remaining = new ArrayList<>();
+        for (IRInstruction instruc : function.instructions) {
+            if (!moving.contains(instruc)) {
+                remaining.add(instruc);
+            }
+        }
+        function.instructions = remaining;
+        IRRewriter.insertPreheader(function, loop, preheader);
+    }
+}
@@ -0,0 +1,261 @@
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Register;
+
+public class LinearScanAllocator implements RegisterAllocator {
+    // Global linear scan over $t0-$t9 (Poletto & Sarkar), for big functions where building a whole interference graph
+    // costs too much (--linear-scan)
+        // the blocks (see MIPScfg) stay in code order, that is the linear order the intervals live in
+        // regions: the code between two calls (a jal ends its region, the callee can clobber every $t register)
+        // each virtual register gets one interval per region it is accessed in (split around calls), from the first point
+        //   of the region it is live at to the last one, built from the global liveness so it covers every block it is live in
+        // scan by start, free the registers of intervals that ended, hand out a free one, and when none is left spill
+        //   whichever of the active ones and the new one weighs least (uses weighted by 10^loop depth over its length)
+        // the stack slot is where a value is between regions, split at the block boundaries that cross one:
+        //   reload blocks (reachable from another region) load their live in values, and a block stores what the region
+        //   wrote before it leaves for a reload block or another region
+        // a spilled interval goes through $t8/$t9 at every use like NaiveAllocator, those two are only kept out of the
+        //   pool if something spills
+        // liveness is the only fixed point, the rest is one pass over the code plus a sort
+    public static final int NUM_SCRATCH = 2; // $t8, $t9 when something spills (an instruction reads at most 2)
+    private AllocationReport report = new AllocationReport();
+
+    // a virtual register's interval in one region, positions are 2i for the reads of code[i] and 2i + 1 for its write
+    private static class Interval {
+        int id; // (see MIPScfg.regId)
+        String name;
+        int start = Integer.MAX_VALUE;
+        int end = -1;
+        double cost; // 10^loop depth per read/write
+        int accesses;
+        boolean written;
+        int reg = -1; // index in GreedyAllocator.REGISTERS, -1 if spilled
+
+        Interval(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        void extend(int position) {
+            start = Math.min(start, position);
+            end = Math.max(end, position);
+        }
+
+        double weight() {
+            return cost / ((end - start) / 2 + 25); // (LLVM's normalization, so a short interval beats a long one with a few more uses)
+        }
+    }
+
+    public String getName() {
+        return "linear-scan";
+    }
+
+    public AllocationReport getReport() {
+        return report;
+    }
+
+    public List<MIPSInstruction> allocate(List<MIPSInstruction> code, List<IRInstruction> origins, Frame frame) {
+        AllocationReport.Record record = report.record(frame.function.name);
+        MIPScfg cfg = new MIPScfg(code);
+        cfg.computeLoopDepths();
+        List<MIPScfg.Block> blocks = cfg.blocks;
+
+        // regions, and which blocks can be entered from another one
+        int[] region = new int[blocks.size()];
+        for (int b = 1; b < blocks.size(); b++) {
+            MIPScfg.Block prev = blocks.get(b - 1);
+            region[b] = region[b - 1] + ((code.get(prev.end - 1).op == MIPSOp.JAL) ? 1 : 0);
+        }
+        boolean[] reload = new boolean[blocks.size()];
+        for (MIPScfg.Block block : blocks) {
+            for (MIPScfg.Block pred : block.preds) {
+                reload[block.id] |= region[pred.id] != region[block.id];
+            }
+        }
+
+        // the intervals, one list per region (regions are runs of blocks, so one array by register id does for the
+            // region being worked on, it is emptied again when the next one starts)
+        List<List<Interval>> region_intervals = new ArrayList<>();
+        Interval[] current = new Interval[cfg.numRegs()];
+        for (MIPScfg.Block block : blocks) {
+            if (region[block.id] == region_intervals.size()) {
+                if (!region_intervals.isEmpty()) {
+                    for (Interval interval : region_intervals.get(region_intervals.size() - 1)) {
+                        current[interval.id] = null;
+                    }
+                }
+                region_intervals.add(new ArrayList<>());
+            }
+            List<Interval> intervals = region_intervals.get(region[block.id]);
+            double weight = LoopForest.spillCostWeight(block.loop_depth);
+            for (int id = block.live_in.nextSetBit(0); id >= 0; id = block.live_in.nextSetBit(id + 1)) {
+                interval(cfg, current, intervals, id).extend(2 * block.start);
+            }
+            for (int i = block.start; i < block.end; i++) {
+                MIPSInstruction instruc = code.get(i);
+                for (Register reg : RegisterAllocator.virtualReads(instruc)) {
+                    Interval interval = interval(cfg, current, intervals, cfg.regId(reg));
+                    interval.extend(2 * i);
+                    interval.cost += weight;
+                    interval.accesses++;
+                }
+                Register write = RegisterAllocator.virtualWrite(instruc);
+                if (write != null) {
+                    Interval interval = interval(cfg, current, intervals, cfg.regId(write));
+                    interval.extend(2 * i + 1);
+                    interval.cost += weight;
+                    interval.accesses++;
+                    interval.written = true;
+                }
+            }
+            for (int id = block.live_out.nextSetBit(0); id >= 0; id = block.live_out.nextSetBit(id + 1)) {
+                interval(cfg, current, intervals, id).extend(2 * block.end - 1);
+            }
+        }
+        // a value the region never touches just stays in its slot
+        List<Interval> order = new ArrayList<>();
+        for (List<Interval> intervals : region_intervals) {
+            intervals.removeIf(interval -> interval.accesses == 0);
+            order.addAll(intervals);
+        }
+        order.sort(Comparator.comparingInt((Interval interval) -> interval.start));
+        int num_regs = GreedyAllocator.REGISTERS.length;
+        if (!scan(order, num_regs)) {
+            num_regs -= NUM_SCRATCH;
+            scan(order, num_regs);
+        }
+        for (Interval interval : order) {
+            if (interval.reg < 0) {
+                record.spills++;
+            }
+        }
+
+        List<MIPSInstruction> allocated = new ArrayList<>();
+        Register[] scratch = Arrays.copyOfRange(GreedyAllocator.REGISTERS, num_regs, num_regs + NUM_SCRATCH);
+        Arrays.fill(current, null);
+        for (MIPScfg.Block block : blocks) {
+            if (block.id == 0 || region[block.id] != region[block.id - 1]) {
+                if (block.id > 0) {
+                    for (Interval interval : region_intervals.get(region[block.id - 1])) {
+                        current[interval.id] = null;
+                    }
+                }
+                for (Interval interval : region_intervals.get(region[block.id])) {
+                    current[interval.id] = interval;
+                }
+            }
+            int i = block.start;
+            if (code.get(i).op == MIPSOp.LABEL) {
+                allocated.add(code.get(i++));
+            }
+            if (reload[block.id]) {
+                for (int id = block.live_in.nextSetBit(0); id >= 0; id = block.live_in.nextSetBit(id + 1)) {
+                    Interval interval = current[id];
+                    if (interval != null && interval.reg >= 0) {
+                        allocated.add(RegisterAllocator.load(GreedyAllocator.REGISTERS[interval.reg], interval.name, frame));
+                        record.loads++;
+                    }
+                }
+            }
+            int terminator = block.terminator(code);
+            for (; i < block.end; i++) {
+                if (i == terminator) {
+                    storeOnExit(block, region, reload, current, frame, allocated, record);
+                }
+                MIPSInstruction instruc = code.get(i);
+                Map<String, Register> map = new HashMap<>(); // the ones with a register here, the rest is spilled
+                List<Register> regs = RegisterAllocator.virtualReads(instruc);
+                if (RegisterAllocator.virtualWrite(instruc) != null) {
+                    regs.add(RegisterAllocator.virtualWrite(instruc));
+                }
+                for (Register reg : regs) {
+                    Interval interval = current[cfg.regId(reg)];
+                    if (interval.reg >= 0) {
+                        map.put(reg.name, GreedyAllocator.REGISTERS[interval.reg]);
+                    }
+                }
+                RegisterAllocator.emitWithSpills(instruc, map, scratch, frame, allocated, record);
+            }
+            if (terminator < 0) {
+                storeOnExit(block, region, reload, current, frame, allocated, record);
+            }
+        }
+        record.finish(allocated);
+        return allocated;
+    }
+
+    // the interval of register id in the region being built
+    private static Interval interval(MIPScfg cfg, Interval[] current, List<Interval> intervals, int id) {
+        if (current[id] == null) {
+            current[id] = new Interval(id, cfg.reg_names.get(id));
+            intervals.add(current[id]);
+        }
+        return current[id];
+    }
+
+    // linear scan with GreedyAllocator.REGISTERS[0, num_regs) over intervals sorted by start, false if something was spilled
+    private static boolean scan(List<Interval> order, int num_regs) {
+        boolean all_allocated = true;
+        List<Interval> active = new ArrayList<>(); // (at most num_regs of them, so plain scans are fine)
+        boolean[] free = new boolean[num_regs];
+        Arrays.fill(free, true);
+        for (Interval interval : order) {
+            interval.reg = -1;
+            for (int a = active.size() - 1; a >= 0; a--) {
+                if (active.get(a).end < interval.start) {
+                    free[active.remove(a).reg] = true;
+                }
+            }
+            for (int reg = 0; reg < num_regs && interval.reg < 0; reg++) {
+                if (free[reg]) {
+                    interval.reg = reg;
+                }
+            }
+            if (interval.reg < 0) {
+                // no register left: the lightest of the active ones gives its up, unless the new one is lighter still
+                Interval victim = interval;
+                for (Interval other : active) {
+                    if (other.weight() < victim.weight()) {
+                        victim = other;
+                    }
+                }
+                all_allocated = false;
+                if (victim == interval) {
+                    continue;
+                }
+                interval.reg = victim.reg;
+                victim.reg = -1;
+                active.remove(victim);
+            }
+            free[interval.reg] = false;
+            active.add(interval);
+        }
+        return all_allocated;
+    }
+
+    // before block leaves: sw the values the region wrote that a reload block or another region will look for in their slot
+    private static void storeOnExit(MIPScfg.Block block, int[] region, boolean[] reload, Interval[] current,
+                                    Frame frame, List<MIPSInstruction> allocated, AllocationReport.Record record) {
+        BitSet needed = new BitSet();
+        for (MIPScfg.Block succ : block.succs) {
+            if (reload[succ.id] || region[succ.id] != region[block.id]) {
+                needed.or(succ.live_in);
+            }
+        }
+        for (int id = needed.nextSetBit(0); id >= 0; id = needed.nextSetBit(id + 1)) {
+            Interval interval = current[id];
+            if (interval != null && interval.reg >= 0 && interval.written) {
+                allocated.add(RegisterAllocator.store(GreedyAllocator.REGISTERS[interval.reg], interval.name, frame));
+                record.stores++;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import ir.IRInstruction;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class Liveness {
+    // Backward "may" dataflow over the instruction level CFG (variables are compared by name)
+        // live_in[n] = use[n] U (live_out[n] - def[n])
+        // live_out[n] = U live_in[s] for s in n.successors
+        // one BitSet of var ids (see IRcfg.var_names) per node, indexed by node id,
+        // liveIn/liveOut turn them back into names for whoever asks
+    private IRcfg cfg;
+    private BitSet[] live_in;
+    private BitSet[] live_out;
+
+    public Liveness(IRcfg cfg) {
+        this.cfg = cfg;
+        List<IRNode> nodes = cfg.nodes;
+        live_in = new BitSet[nodes.size()];
+        live_out = new BitSet[nodes.size()];
+        for (IRNode node : nodes) {
+            live_in[node.id] = new BitSet();
+            live_out[node.id] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // walking backwards converges a lot faster for a backward problem
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                IRNode node = nodes.get(i);
+                BitSet new_out = new BitSet();
+                for (int e = cfg.succ_start[i]; e < cfg.succ_start[i + 1]; e++) {
+                    new_out.or(live_in[cfg.succ_ids[e]]);
+                }
+                BitSet new_in = (BitSet) new_out.clone();
+                if (node.def >= 0 && !isArrayInit(node)) {
+                    new_in.clear(node.def);
+                }
+                for (int use : node.uses) {
+                    new_in.set(use);
+                }
+
+                if (!new_out.equals(live_out[i]) || !new_in.equals(live_in[i])) {
+                    changed = true;
+                    live_out[i] = new_out;
+                    live_in[i] = new_in;
+                }
+            }
+        }
+    }
+
+    // assign, A, size, value only writes (part of) the array so it does not kill the array variable
+    private static boolean isArrayInit(IRNode node) {
+        return node.instruction.opCode == IRInstruction.OpCode.ASSIGN && node.instruction.operands.length > 2;
+    }
+
+    public boolean isLiveOut(IRNode node, String var) {
+        int id = cfg.lookupVar(var);
+        return id >= 0 && live_out[node.id].get(id);
+    }
+
+    public Set<String> liveIn(IRNode node) {
+        return names(live_in[node.id]);
+    }
+
+    public Set<String> liveOut(IRNode node) {
+        return names(live_out[node.id]);
+    }
+
+    // how many vars are live going into / out of node (without building the sets)
+    public int liveInCount(IRNode node) {
+        return live_in[node.id].cardinality();
+    }
+
+    public int liveOutCount(IRNode node) {
+        return live_out[node.id].cardinality();
+    }
+
+    private Set<String> names(BitSet vars) {
+        Set<String> names = new HashSet<>();
+        for (int id = vars.nextSetBit(0); id >= 0; id = vars.nextSetBit(id + 1)) {
+            names.add(cfg.var_names.get(id));
+        }
+        return names;
+    }
+}
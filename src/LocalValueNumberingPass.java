@@ -0,0 +1,265 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LocalValueNumberingPass implements FunctionPass {
+    // Hash based value numbering inside each basic block
+        // every var/constant gets a value number (VN), an expression is keyed on (op, VN(y), VN(z))
+        // ADD/MULT/AND/OR are commutative so their operand VNs are sorted (and a constant goes to operand 2)
+        // if we already computed the same key and a var still holds it: x = y op z  ==>  assign, x, holder
+        // x = y op z / x = y where x already holds that value just gets removed
+        // ARRAY_LOADs are keyed on (array, VN(index), version of the array), a store/call that can write
+        // the array (see SideEffects) bumps the version so loads are only reused when no store got in between
+        // uses are rewritten to the first var holding their VN so the copies we leave behind die (DCE gets them)
+    public String getName() {
+        return "lvn";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    private static class Holder {
+        int vn;
+        String var;
+
+        Holder(int vn, String var) {
+            this.vn = vn;
+            this.var = var;
+        }
+    }
+
+    // per block state
+    private Map<String, Integer> var_vn;
+    private Map<String, Integer> const_vn;
+    private Map<String, Holder> expr_table;
+    private Map<Integer, List<String>> vn_vars; // VN -> vars that were given it (in order, check var_vn before using one)
+    private Map<String, Integer> array_version;
+    private static final String PARAMS = "#params"; // not a legal var name so it cannot clash with an array
+    private int next_vn;
+    private SideEffects effects; // null if there are no summaries, then a call can write every array it gets
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        boolean changed = false;
+        effects = (SideEffects) cache.getProgramResult(SideEffects.NAME);
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        resetBlock();
+        for (IRInstruction instruc : function.instructions) {
+            if (instruc.opCode == IRInstruction.OpCode.LABEL) {
+                resetBlock(); // something could jump here so we know nothing
+                new_instructions.add(instruc);
+                continue;
+            }
+            IRInstruction result = numberInstruction(function, instruc); // null if it is redundant
+            if (result != instruc) {
+                changed = true;
+            }
+            if (result != null) {
+                new_instructions.add(result);
+            }
+            if (IRRewriter.targetOf(instruc) != null || instruc.opCode == IRInstruction.OpCode.RETURN) {
+                resetBlock();
+            }
+        }
+        if (changed) {
+            function.instructions = new_instructions;
+        }
+        return changed;
+    }
+
+    private void resetBlock() {
+        var_vn = new HashMap<>();
+        const_vn = new HashMap<>();
+        expr_table = new HashMap<>();
+        vn_vars = new HashMap<>();
+        array_version = new HashMap<>();
+        next_vn = 0;
+    }
+
+    private int vnOf(IROperand operand) {
+        if (operand instanceof IRConstantOperand) {
+            String key = ((IRConstantOperand) operand).type + ":" + normalizeConstant(operand.toString());
+            Integer vn = const_vn.get(key);
+            if (vn == null) {
+                vn = next_vn++;
+                const_vn.put(key, vn);
+            }
+            return vn;
+        }
+        String var = ((IRVariableOperand) operand).getName();
+        Integer vn = var_vn.get(var);
+        if (vn == null) { // value coming into the block
+            vn = next_vn++;
+            setVar(var, vn);
+        }
+        return vn;
+    }
+
+    private static String normalizeConstant(String value) {
+        try {
+            return "" + Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private void setVar(String var, int vn) {
+        var_vn.put(var, vn);
+        vn_vars.computeIfAbsent(vn, k -> new ArrayList<>()).add(var);
+    }
+
+    // the first var (in block order) that still holds vn, or null
+    private String holderOf(int vn) {
+        for (String var : vn_vars.getOrDefault(vn, List.of())) {
+            if (var_vn.get(var) == vn) {
+                return var;
+            }
+        }
+        return null;
+    }
+
+    // replace a use with the oldest var holding the same value (array vars are never rewritten)
+    private IROperand rewriteUse(IROperand operand, IRInstruction instruc) {
+        if (!(operand instanceof IRVariableOperand)) {
+            return operand;
+        }
+        IRVariableOperand var = (IRVariableOperand) operand;
+        if (var.type instanceof IRArrayType) {
+            return operand;
+        }
+        String holder = holderOf(vnOf(operand));
+        if (holder == null || holder.equals(var.getName())) {
+            return operand;
+        }
+        return new IRVariableOperand(var.type, holder, instruc);
+    }
+
+    // loads are keyed on the version of the memory they read: a local array has its own version,
+    // all parameter arrays share one (they can be the same array)
+    private int versionOf(IRFunction function, String array) {
+        String key = ArrayAlias.isParameter(function, array) ? PARAMS : array;
+        return array_version.getOrDefault(key, 0);
+    }
+
+    private void clobberArray(IRFunction function, String array) {
+        String key = ArrayAlias.isParameter(function, array) ? PARAMS : array;
+        array_version.put(key, array_version.getOrDefault(key, 0) + 1);
+    }
+
+    private IRInstruction numberInstruction(IRFunction function, IRInstruction instruc) {
+        IROperand[] operands = instruc.operands;
+        switch (instruc.opCode) {
+            case ADD, SUB, MULT, DIV, AND, OR -> {
+                IROperand y = rewriteUse(operands[1], instruc);
+                IROperand z = rewriteUse(operands[2], instruc);
+                boolean commutative = instruc.opCode != IRInstruction.OpCode.SUB && instruc.opCode != IRInstruction.OpCode.DIV;
+                if (commutative && y instanceof IRConstantOperand && z instanceof IRVariableOperand) {
+                    IROperand tmp = y; // constant goes second (lets the selector use the immediate forms)
+                    y = z;
+                    z = tmp;
+                }
+                int vn_y = vnOf(y);
+                int vn_z = vnOf(z);
+                String key = commutative
+                        ? instruc.opCode + " " + Math.min(vn_y, vn_z) + " " + Math.max(vn_y, vn_z)
+                        : instruc.opCode + " " + vn_y + " " + vn_z;
+                IRVariableOperand dest = (IRVariableOperand) operands[0];
+                return defineFromExpression(instruc, dest, key, new IROperand[]{dest, y, z});
+            }
+            case ARRAY_LOAD -> {
+                IROperand index = rewriteUse(operands[2], instruc);
+                String array = ((IRVariableOperand) operands[1]).getName();
+                String key = "load " + array + " " + vnOf(index) + " " + versionOf(function, array);
+                IRVariableOperand dest = (IRVariableOperand) operands[0];
+                return defineFromExpression(instruc, dest, key, new IROperand[]{dest, operands[1], index});
+            }
+            case ASSIGN -> {
+                if (operands.length > 2) { // array init writes the whole array
+                    IROperand[] new_operands = {operands[0], rewriteUse(operands[1], instruc), rewriteUse(operands[2], instruc)};
+                    clobberArray(function, ((IRVariableOperand) operands[0]).getName());
+                    return withOperands(instruc, new_operands);
+                }
+                IROperand src = rewriteUse(operands[1], instruc);
+                int vn = vnOf(src);
+                String dest = ((IRVariableOperand) operands[0]).getName();
+                if (var_vn.containsKey(dest) && var_vn.get(dest) == vn) {
+                    return null; // x already holds this value
+                }
+                setVar(dest, vn);
+                return withOperands(instruc, new IROperand[]{operands[0], src});
+            }
+            case ARRAY_STORE -> {
+                IROperand[] new_operands = {rewriteUse(operands[0], instruc), operands[1], rewriteUse(operands[2], instruc)};
+                clobberArray(function, ((IRVariableOperand) operands[1]).getName());
+                return withOperands(instruc, new_operands);
+            }
+            case CALL, CALLR -> {
+                int first_arg = (instruc.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+                IROperand[] new_operands = operands.clone();
+                for (int i = first_arg; i < operands.length; i++) {
+                    new_operands[i] = rewriteUse(operands[i], instruc);
+                    if (operands[i] instanceof IRVariableOperand && ((IRVariableOperand) operands[i]).type instanceof IRArrayType
+                            && (effects == null || effects.mayWriteArg(CallGraph.calleeName(instruc), i - first_arg))) {
+                        clobberArray(function, ((IRVariableOperand) operands[i]).getName());
+                    }
+                }
+                if (instruc.opCode == IRInstruction.OpCode.CALLR) {
+                    setVar(((IRVariableOperand) operands[0]).getName(), next_vn++);
+                }
+                return withOperands(instruc, new_operands);
+            }
+            case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                return withOperands(instruc, new IROperand[]{operands[0], rewriteUse(operands[1], instruc), rewriteUse(operands[2], instruc)});
+            }
+            case RETURN -> {
+                return withOperands(instruc, new IROperand[]{rewriteUse(operands[0], instruc)});
+            }
+            default -> {
+                return instruc;
+            }
+        }
+    }
+
+    private IRInstruction defineFromExpression(IRInstruction instruc, IRVariableOperand dest, String key, IROperand[] new_operands) {
+        Holder known = expr_table.get(key);
+        if (known != null) {
+            String holder = holderOf(known.vn);
+            if (holder != null && holder.equals(dest.getName())) {
+                return null; // dest already holds this value
+            }
+            if (holder != null) {
+                // same value is already sitting in holder
+                IRInstruction copy = new IRInstruction(IRInstruction.OpCode.ASSIGN, null, instruc.irLineNumber);
+                copy.operands = new IROperand[]{new IRVariableOperand(dest.type, dest.getName(), copy),
+                        new IRVariableOperand(dest.type, holder, copy)};
+                setVar(dest.getName(), known.vn);
+                return copy;
+            }
+        }
+        int vn = next_vn++;
+        expr_table.put(key, new Holder(vn, dest.getName()));
+        setVar(dest.getName(), vn);
+        return withOperands(instruc, new_operands);
+    }
+
+    // same instruction if nothing changed, otherwise a copy with the new operands (same line number)
+    private static IRInstruction withOperands(IRInstruction instruc, IROperand[] new_operands) {
+        boolean same = new_operands.length == instruc.operands.length;
+        for (int i = 0; same && i < new_operands.length; i++) {
+            same = new_operands[i] == instruc.operands[i];
+        }
+        if (same) {
+            return instruc;
+        }
+        IRInstruction rewritten = new IRInstruction(instruc.opCode, new_operands, instruc.irLineNumber);
+        return rewritten;
+    }
+}
@@ -0,0 +1,163 @@
+import ir.IRInstruction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LoopForest {
+    // Natural loops of the instruction level CFG
+        // a back edge is latch -> header where header dominates latch
+        // the loop body is header + every node that reaches a latch without going through header
+        // back edges with the same header are merged into one loop
+    public static class Loop {
+        public IRNode header;
+        public List<IRNode> latches = new ArrayList<>();
+        public Set<IRNode> body = new HashSet<>();
+        public Loop parent = null;
+        public List<Loop> children = new ArrayList<>();
+        public int depth = 1; // outermost loops have depth 1
+
+        public boolean contains(IRNode node) {
+            return body.contains(node);
+        }
+
+        // nodes inside the loop with a successor outside of it
+        public List<IRNode> exitingNodes() {
+            List<IRNode> exiting = new ArrayList<>();
+            for (IRNode node : body) {
+                for (IRNode succ : node.successors()) {
+                    if (!body.contains(succ)) {
+                        exiting.add(node);
+                        break;
+                    }
+                }
+            }
+            return exiting;
+        }
+
+        // the nodes outside the loop we can land on when we leave it
+        public Set<IRNode> exitTargets() {
+            Set<IRNode> targets = new HashSet<>();
+            for (IRNode node : body) {
+                for (IRNode succ : node.successors()) {
+                    if (!body.contains(succ)) {
+                        targets.add(succ);
+                    }
+                }
+            }
+            return targets;
+        }
+
+        public String toString() {
+            return "loop(" + header + ", depth " + depth + ", " + body.size() + " nodes)";
+        }
+    }
+
+    public List<Loop> loops = new ArrayList<>(); // every loop, outer loops before the loops nested in them
+    public List<Loop> top_level = new ArrayList<>();
+    private Map<IRNode, Loop> innermost = new HashMap<>();
+
+    public LoopForest(IRcfg cfg, DominatorTree dom) {
+        // 1. find the back edges and group them by header
+        Map<IRNode, Loop> by_header = new HashMap<>();
+        for (IRNode node : dom.reverse_postorder) {
+            for (IRNode succ : node.successors()) {
+                if (dom.dominates(succ, node)) {
+                    Loop loop = by_header.get(succ);
+                    if (loop == null) {
+                        loop = new Loop();
+                        loop.header = succ;
+                        by_header.put(succ, loop);
+                        loops.add(loop);
+                    }
+                    loop.latches.add(node);
+                }
+            }
+        }
+
+        // 2. the body is everything that reaches a latch backwards without crossing the header
+        for (Loop loop : loops) {
+            loop.body.add(loop.header);
+            Deque<IRNode> worklist = new ArrayDeque<>();
+            for (IRNode latch : loop.latches) {
+                if (loop.body.add(latch)) {
+                    worklist.add(latch);
+                }
+            }
+            while (!worklist.isEmpty()) {
+                IRNode node = worklist.poll();
+                for (IRNode pred : node.predecessors()) {
+                    if (dom.isReachable(pred) && loop.body.add(pred)) {
+                        worklist.add(pred);
+                    }
+                }
+            }
+        }
+
+        // 3. nesting: the parent of a loop is the smallest other loop whose body contains its header
+        loops.sort(Comparator.comparingInt((Loop l) -> l.body.size()).reversed());
+        for (int i = 0; i < loops.size(); i++) {
+            Loop loop = loops.get(i);
+            for (int j = i - 1; j >= 0; j--) {
+                Loop outer = loops.get(j);
+                if (outer.body.contains(loop.header) && outer.body.size() > loop.body.size()) {
+                    loop.parent = outer;
+                    break;
+                }
+            }
+            if (loop.parent == null) {
+                top_level.add(loop);
+            } else {
+                loop.parent.children.add(loop);
+                loop.depth = loop.parent.depth + 1;
+            }
+        }
+
+        // bigger (outer) loops come first, so the last loop written for a node is the innermost one
+        for (Loop loop : loops) {
+            for (IRNode node : loop.body) {
+                innermost.put(node, loop);
+            }
+        }
+    }
+
+    public Loop innermostLoop(IRNode node) {
+        return innermost.get(node);
+    }
+
+    // 0 if the node is not in any loop
+    public int loopDepth(IRNode node) {
+        Loop loop = innermost.get(node);
+        return (loop == null) ? 0 : loop.depth;
+    }
+
+    // loop depth keyed by the instruction (so the backend can look it up without the CFG)
+    public Map<IRInstruction, Integer> depthByInstruction() {
+        Map<IRInstruction, Integer> depths = new HashMap<>();
+        for (Map.Entry<IRNode, Loop> entry : innermost.entrySet()) {
+            depths.put(entry.getKey().instruction, entry.getValue().depth);
+        }
+        return depths;
+    }
+
+    // the usual "a use inside a loop counts 10 times" spill cost weight for the register allocator
+    public static int spillCostWeight(int loop_depth) {
+        int weight = 1;
+        for (int i = 0; i < Math.min(loop_depth, 6); i++) {
+            weight *= 10;
+        }
+        return weight;
+    }
+
+    // innermost loops first (what you want when hoisting code out of nested loops)
+    public List<Loop> innermostFirst() {
+        List<Loop> order = new ArrayList<>(loops);
+        order.sort(Comparator.comparingInt((Loop l) -> l.depth).reversed());
+        return order;
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.Register;
+
+public class MIPScfg {
+    // Basic blocks over one function's selected code (still in virtual registers), what the register allocators work on
+        // a block starts at the first instruction, at a label and after a branch/jump/jal, and ends at the next of those
+        // a jal ends its block too: the callee can clobber any $t register, so a call is where things have to be saved
+        // live_in/live_out: which virtual registers are live at the block's edges (ids from regId, BitSets like Liveness)
+        // with caller_saved it tracks the $t registers of allocated code instead (see CallerSaves)
+    public List<MIPSInstruction> code;
+    public List<Block> blocks = new ArrayList<>(); // in code order, blocks.get(i).id == i
+    public List<String> reg_names = new ArrayList<>(); // tracked register id -> name
+    private Map<String, Integer> reg_ids = new HashMap<>();
+    private boolean caller_saved;
+    public Map<Block, BitSet> loop_bodies = new LinkedHashMap<>(); // header -> ids of the blocks in its loop (see computeLoopDepths)
+
+    public static class Block {
+        public int id;
+        public int start; // code[start, end) (the label, if any, is code[start])
+        public int end;
+        public List<Block> succs = new ArrayList<>();
+        public List<Block> preds = new ArrayList<>();
+        public BitSet live_in = new BitSet();
+        public BitSet live_out = new BitSet();
+        public int loop_depth; // (see computeLoopDepths)
+
+        // the branch/jump/jal the block ends with, -1 if it falls through
+        public int terminator(List<MIPSInstruction> code) {
+            return isTerminator(code.get(end - 1)) ? end - 1 : -1;
+        }
+    }
+
+    public MIPScfg(List<MIPSInstruction> code) {
+        this(code, false);
+    }
+
+    public MIPScfg(List<MIPSInstruction> code, boolean caller_saved) {
+        this.code = code;
+        this.caller_saved = caller_saved;
+        Map<String, Block> label_blocks = new HashMap<>();
+        Block block = null;
+        for (int i = 0; i < code.size(); i++) {
+            MIPSInstruction instruc = code.get(i);
+            if (block == null || instruc.op == MIPSOp.LABEL) {
+                if (block != null) {
+                    block.end = i;
+                }
+                block = new Block();
+                block.id = blocks.size();
+                block.start = i;
+                blocks.add(block);
+            }
+            if (instruc.op == MIPSOp.LABEL) {
+                label_blocks.put(instruc.label, block);
+            }
+            for (Register reg : instruc.getReads()) {
+                regId(reg);
+            }
+            if (instruc.getWrite() != null) {
+                regId(instruc.getWrite());
+            }
+            if (isTerminator(instruc)) {
+                block.end = i + 1;
+                block = null;
+            }
+        }
+        if (block != null) {
+            block.end = code.size();
+        }
+
+        // edges: a branch goes to its label and falls through, j only goes to its label, jr $ra leaves the function,
+            // jal comes back to the next instruction (syscall exit is not an edge, the code after it is never reached anyway)
+        for (Block from : blocks) {
+            MIPSInstruction last = code.get(from.end - 1);
+            if (last.op == MIPSOp.J || isBranch(last)) {
+                addEdge(from, label_blocks.get(((Addr) last.operands.get(last.operands.size() - 1)).label));
+            }
+            if (last.op != MIPSOp.J && last.op != MIPSOp.JR && from.id + 1 < blocks.size()) {
+                addEdge(from, blocks.get(from.id + 1));
+            }
+        }
+        computeLiveness();
+    }
+
+    public static boolean isBranch(MIPSInstruction instruc) {
+        switch (instruc.op) {
+            case BEQ, BNE, BLT, BGT, BGE -> {
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    public static boolean isTerminator(MIPSInstruction instruc) {
+        return isBranch(instruc) || instruc.op == MIPSOp.J || instruc.op == MIPSOp.JR || instruc.op == MIPSOp.JAL;
+    }
+
+    public boolean tracks(Register reg) {
+        return reg != null && (caller_saved ? !reg.isVirtual && reg.name.startsWith("$t") : reg.isVirtual);
+    }
+
+    // the tracked registers instruc reads (each once)
+    public List<Register> reads(MIPSInstruction instruc) {
+        List<Register> reads = new ArrayList<>();
+        for (Register reg : instruc.getReads()) {
+            if (tracks(reg) && !reads.contains(reg)) {
+                reads.add(reg);
+            }
+        }
+        return reads;
+    }
+
+    // the tracked register instruc writes (null if none)
+    public Register write(MIPSInstruction instruc) {
+        return tracks(instruc.getWrite()) ? instruc.getWrite() : null;
+    }
+
+    // id of a tracked register (-1 for the rest, the allocators leave physical registers alone)
+    public int regId(Register reg) {
+        if (!tracks(reg)) {
+            return -1;
+        }
+        Integer id = reg_ids.get(reg.name);
+        if (id == null) {
+            id = reg_names.size();
+            reg_names.add(reg.name);
+            reg_ids.put(reg.name, id);
+        }
+        return id;
+    }
+
+    public boolean isLiveOut(Block block, String name) {
+        Integer id = reg_ids.get(name);
+        return id != null && block.live_out.get(id);
+    }
+
+    public int numRegs() {
+        return reg_names.size();
+    }
+
+    // how many loops each block is in, for spill weights
+        // a loop is the natural loop of the back edges into one header, an edge to a block at or before it in code order
+        // is a back edge (the selector lays blocks out in IR order, so for our code that is the same as the header
+        // dominating the tail)
+    public void computeLoopDepths() {
+        Map<Block, BitSet> bodies = loop_bodies;
+        for (Block tail : blocks) {
+            for (Block head : tail.succs) {
+                if (head.id > tail.id) {
+                    continue;
+                }
+                BitSet body = bodies.computeIfAbsent(head, header -> new BitSet());
+                body.set(head.id);
+                Deque<Block> worklist = new ArrayDeque<>();
+                if (!body.get(tail.id)) {
+                    body.set(tail.id);
+                    worklist.push(tail);
+                }
+                while (!worklist.isEmpty()) {
+                    for (Block pred : worklist.pop().preds) {
+                        if (!body.get(pred.id)) {
+                            body.set(pred.id);
+                            worklist.push(pred);
+                        }
+                    }
+                }
+            }
+        }
+        for (BitSet body : bodies.values()) {
+            for (int b = body.nextSetBit(0); b >= 0; b = body.nextSetBit(b + 1)) {
+                blocks.get(b).loop_depth++;
+            }
+        }
+    }
+
+    private static void addEdge(Block from, Block to) {
+        if (to != null && !from.succs.contains(to)) {
+            from.succs.add(to);
+            to.preds.add(from);
+        }
+    }
+
+    // backward may analysis: live_out = U live_in(succ), live_in = use + (live_out - def), until nothing changes
+        // (blocks in reverse order so most of it settles in the first sweep)
+    private void computeLiveness() {
+        List<BitSet> uses = new ArrayList<>();
+        List<BitSet> defs = new ArrayList<>();
+        for (Block block : blocks) {
+            BitSet use = new BitSet();
+            BitSet def = new BitSet();
+            for (int i = block.start; i < block.end; i++) {
+                MIPSInstruction instruc = code.get(i);
+                for (Register reg : reads(instruc)) {
+                    if (!def.get(regId(reg))) {
+                        use.set(regId(reg));
+                    }
+                }
+                Register write = write(instruc);
+                if (write != null) {
+                    def.set(regId(write));
+                }
+            }
+            uses.add(use);
+            defs.add(def);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                Block block = blocks.get(b);
+                for (Block succ : block.succs) {
+                    block.live_out.or(succ.live_in);
+                }
+                BitSet live_in = (BitSet) block.live_out.clone();
+                live_in.andNot(defs.get(b));
+                live_in.or(uses.get(b));
+                if (!live_in.equals(block.live_in)) {
+                    block.live_in = live_in;
+                    changed = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.operand.Register;
+
+public class NaiveAllocator implements RegisterAllocator {
+    // Every virtual register lives in its own stack slot, nothing stays in a register between instructions
+        // before an instruction: lw each virtual register it reads into $t0, $t1, ... (an instruction reads at most 2)
+        // after it: sw the one it writes (from $t0, or from where it was loaded if the instruction also reads it)
+        // slow but needs no analysis at all, it is what the other allocators get measured against (--naive)
+    public static final Register[] SCRATCH = { new Register("$t0", false), new Register("$t1", false) };
+    private AllocationReport report = new AllocationReport();
+
+    public String getName() {
+        return "naive";
+    }
+
+    public AllocationReport getReport() {
+        return report;
+    }
+
+    public List<MIPSInstruction> allocate(List<MIPSInstruction> code, List<IRInstruction> origins, Frame frame) {
+        AllocationReport.Record record = report.record(frame.function.name);
+        List<MIPSInstruction> allocated = new ArrayList<>();
+        for (MIPSInstruction instruc : code) {
+            RegisterAllocator.emitWithSpills(instruc, Map.of(), SCRATCH, frame, allocated, record); // (nothing has a register)
+        }
+        record.spills = frame.numSlots();
+        record.finish(allocated);
+        return allocated;
+    }
+}
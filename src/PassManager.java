@@ -0,0 +1,141 @@
+import ir.IRFunction;
+import ir.IRProgram;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PassManager {
+    // Runs a list of FunctionPasses over every function, keeping analysis results cached
+    // between passes (a pass only throws away what it says it invalidates)
+    private List<ProgramPass> program_passes = new ArrayList<>(); // run first, over the whole program
+    private List<FunctionPass> passes = new ArrayList<>();
+    private PassStats stats = new PassStats();
+    private AnalysisCache cache = new AnalysisCache(stats);
+
+    public PassManager() {}
+
+    public void addPass(FunctionPass pass) {
+        passes.add(pass);
+    }
+
+    public void addProgramPass(ProgramPass pass) {
+        program_passes.add(pass);
+    }
+
+    public List<FunctionPass> getPasses() {
+        return passes;
+    }
+
+    public void run(IRProgram program) {
+        runProgramPasses(program);
+        for (IRFunction function : program.functions) {
+            runOnFunction(function);
+        }
+    }
+
+    public void runProgramPasses(IRProgram program) {
+        for (ProgramPass pass : program_passes) {
+            runProgramPass(pass, program);
+        }
+    }
+
+    private boolean runProgramPass(ProgramPass pass, IRProgram program) {
+        int instrucs_before = countInstructions(program);
+        long start_time = System.nanoTime();
+        long start_bytes = PassStats.allocatedBytes();
+
+        boolean changed = pass.run(program, cache);
+
+        long nanos = System.nanoTime() - start_time;
+        long end_bytes = PassStats.allocatedBytes();
+        stats.record(pass.getName(), "<program>", false, nanos,
+                (start_bytes < 0) ? -1 : end_bytes - start_bytes, instrucs_before, countInstructions(program));
+        if (changed) {
+            cache.invalidateProgramResults();
+            for (IRFunction function : program.functions) {
+                cache.invalidate(function, pass.invalidates());
+            }
+        }
+        return changed;
+    }
+
+    private static int countInstructions(IRProgram program) {
+        int count = 0;
+        for (IRFunction function : program.functions) {
+            count += function.instructions.size();
+        }
+        return count;
+    }
+
+    public boolean runOnFunction(IRFunction function) {
+        boolean changed_any = false;
+        for (FunctionPass pass : passes) {
+            int instrucs_before = function.instructions.size();
+            long start_time = System.nanoTime();
+            long start_bytes = PassStats.allocatedBytes();
+
+            boolean changed = pass.run(function, cache);
+
+            long nanos = System.nanoTime() - start_time;
+            long end_bytes = PassStats.allocatedBytes();
+            if (changed) {
+                cache.invalidate(function, pass.invalidates());
+                changed_any = true;
+            }
+            // dataflow facts are as big as the function times its vars/defs, we would rather redo them
+            // than keep them around between passes (the CFG and the loop/dominator trees stay cached)
+            cache.invalidate(function, Analyses.DATAFLOW);
+            stats.record(pass.getName(), function.name, false, nanos,
+                    (start_bytes < 0) ? -1 : end_bytes - start_bytes, instrucs_before, function.instructions.size());
+        }
+        // nothing after the passes needs this function's analyses, let them go before the next function
+        cache.invalidateAll(function);
+        return changed_any;
+    }
+
+    public AnalysisCache getCache() {
+        return cache;
+    }
+
+    public PassStats getStats() {
+        return stats;
+    }
+
+    // -O0: no optimization, -O1 (default): the dead code elimination we have always done
+    // -O2: value numbering, copy propagation and loop optimizations on top of that (each cleaned up by DCE,
+    //      the last one is ADCE so loops that compute nothing useful go too, right after stores into
+    //      local arrays nobody reads are removed),
+    //      last the copies that are left get coalesced away where their vars do not interfere
+    //      and the jumps/labels all that leaves behind get cleaned up (simplify-cfg)
+    //      (before any of that small non-recursive functions get inlined into their callers and
+    //      self calls in tail position become loops, then we summarize what every function can do
+    //      to its caller so DCE can drop calls to pure functions nobody uses the result of)
+    //      with a profile inlining goes by the real call counts and the blocks get laid out hot path first
+    public static PassManager buildPipeline(int opt_level) {
+        return buildPipeline(opt_level, null);
+    }
+
+    public static PassManager buildPipeline(int opt_level, ExecutionProfile profile) {
+        PassManager pm = new PassManager();
+        if (opt_level >= 1) {
+            pm.addPass(new DeadCodeElimPass());
+        }
+        if (opt_level >= 2) {
+            pm.addProgramPass(new InlinePass(profile));
+            pm.addProgramPass(new SideEffectsPass());
+            pm.addPass(new TailRecursionPass());
+            pm.addPass(new LocalValueNumberingPass());
+            pm.addPass(new CopyPropagationPass());
+            pm.addPass(new DeadCodeElimPass());
+            pm.addPass(new SimplifyCFGPass());
+            pm.addPass(new LICMPass());
+            pm.addPass(new DeadStoreElimPass());
+            pm.addPass(new AggressiveDeadCodeElimPass());
+            pm.addPass(new CopyCoalescingPass());
+            if (profile != null) {
+                pm.addPass(new BlockLayoutPass(profile));
+            }
+            pm.addPass(new SimplifyCFGPass());
+        }
+        return pm;
+    }
+}
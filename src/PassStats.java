@@ -0,0 +1,146 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PassStats {
+    // One line of the report: a pass (or an analysis being computed) over one function
+    public static class Record {
+        public String name;
+        public String function;
+        public boolean is_analysis;
+        public long nanos;
+        public long bytes; // -1 if the JVM cannot tell us per-thread allocation
+        public int instrucs_before;
+        public int instrucs_after;
+        public long heap_after = -1; // live heap right after it finished (only with measure_heap)
+    }
+
+    public List<Record> records = new ArrayList<>();
+    // --heap-report: after every pass/analysis force a GC and remember how much of the heap is still live
+        // (slow, every record pays for a full GC), baseline_heap is the live heap before the first pass
+        // (the parsed program and not much else) so the report shows what the optimizer holds on top of the IR
+    public boolean measure_heap = false;
+    public long baseline_heap = -1;
+
+    public void record(String name, String function, boolean is_analysis, long nanos, long bytes,
+                       int instrucs_before, int instrucs_after) {
+        Record record = new Record();
+        record.name = name;
+        record.function = function;
+        record.is_analysis = is_analysis;
+        record.nanos = nanos;
+        record.bytes = bytes;
+        record.instrucs_before = instrucs_before;
+        record.instrucs_after = instrucs_after;
+        record.heap_after = measure_heap ? liveHeapBytes() : -1;
+        records.add(record);
+    }
+
+    // bytes allocated so far by this thread (HotSpot only, otherwise -1)
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot_bean = (com.sun.management.ThreadMXBean) bean;
+            if (hotspot_bean.isThreadAllocatedMemorySupported() && hotspot_bean.isThreadAllocatedMemoryEnabled()) {
+                return hotspot_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    // bytes of the heap still reachable (after a full GC, so this is slow)
+    public static long liveHeapBytes() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // the most heap the JVM has had in use at any point so far (summed over the heap pools)
+    public static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    public void startMeasuringHeap() {
+        measure_heap = true;
+        liveHeapBytes(); // the first GC after startup still leaves a lot of garbage behind
+        baseline_heap = liveHeapBytes();
+    }
+
+    public void printHeapReport(PrintStream ps) {
+        ps.println("Heap usage report (live heap after each pass/analysis, over the " + formatBytes(baseline_heap)
+                + " KB live before the first pass):");
+        ps.println(String.format("  %-24s %-16s %12s %12s %8s", "pass", "function", "live(KB)", "over IR(KB)", "instrucs"));
+        long max_over = 0;
+        Record max_record = null;
+        for (Record record : records) {
+            if (record.heap_after < 0) {
+                continue;
+            }
+            long over = record.heap_after - baseline_heap;
+            ps.println(String.format("  %-24s %-16s %12s %12s %8d",
+                    (record.is_analysis ? "[" + record.name + "]" : record.name), record.function,
+                    formatBytes(record.heap_after), String.format("%+.1f", over / 1024.0), record.instrucs_after));
+            if (max_record == null || over > max_over) {
+                max_over = over;
+                max_record = record;
+            }
+        }
+        if (max_record != null) {
+            ps.println("  most retained: " + String.format("%+.1f", max_over / 1024.0) + " KB over the IR after "
+                    + max_record.name + " on " + max_record.function);
+        }
+        ps.println("  peak heap: " + formatBytes(peakHeapBytes()) + " KB");
+    }
+
+    public void printReport(PrintStream ps) {
+        ps.println("Pass timing report (pass times include any analyses they asked for):");
+        ps.println(String.format("  %-24s %-16s %10s %12s %8s %8s %6s", "pass", "function", "time(ms)", "alloc(KB)", "before", "after", "delta"));
+        for (Record record : records) {
+            ps.println(String.format("  %-24s %-16s %10.3f %12s %8d %8d %+6d",
+                    (record.is_analysis ? "[" + record.name + "]" : record.name), record.function,
+                    record.nanos / 1e6, formatBytes(record.bytes),
+                    record.instrucs_before, record.instrucs_after, record.instrucs_after - record.instrucs_before));
+        }
+
+        // totals per pass over every function
+        Map<String, Record> totals = new LinkedHashMap<>();
+        for (Record record : records) {
+            String key = record.is_analysis ? "[" + record.name + "]" : record.name;
+            Record total = totals.get(key);
+            if (total == null) {
+                total = new Record();
+                total.name = key;
+                totals.put(key, total);
+            }
+            total.nanos += record.nanos;
+            total.bytes = (total.bytes < 0 || record.bytes < 0) ? -1 : total.bytes + record.bytes;
+            total.instrucs_before += record.instrucs_before;
+            total.instrucs_after += record.instrucs_after;
+            total.function = "" + (total.function == null ? 1 : Integer.parseInt(total.function) + 1);
+        }
+        ps.println("Totals:");
+        ps.println(String.format("  %-24s %-16s %10s %12s %6s", "pass", "runs", "time(ms)", "alloc(KB)", "delta"));
+        for (Record total : totals.values()) {
+            ps.println(String.format("  %-24s %-16s %10.3f %12s %+6d", total.name, total.function,
+                    total.nanos / 1e6, formatBytes(total.bytes), total.instrucs_after - total.instrucs_before));
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 0) {
+            return "n/a";
+        }
+        return String.format("%.1f", bytes / 1024.0);
+    }
+}
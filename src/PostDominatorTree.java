@@ -0,0 +1,148 @@
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PostDominatorTree {
+    // Post-dominators: the dominators of the reversed CFG, with one virtual exit node that every
+    // RETURN (and the instruction that falls off the end of the function) goes to
+        // same Cooper/Harvey/Kennedy iteration as DominatorTree, done on node indexes so the virtual exit
+        // (index nodes.size()) does not need an IRNode
+        // nodes that can never reach the exit (stuck in an infinite loop) have no ipdom
+    private List<IRNode> nodes;
+    private Map<IRNode, Integer> index_of = new HashMap<>();
+    private int exit;
+    private int[] ipdom;
+    private int[] rpo_number; // in the reversed graph, -1 = cannot reach the exit
+
+    public PostDominatorTree(IRcfg cfg) {
+        nodes = cfg.nodes;
+        exit = nodes.size();
+        for (int i = 0; i < nodes.size(); i++) {
+            index_of.put(nodes.get(i), i);
+        }
+
+        // reversed graph: the "predecessors" of a node are its forward successors
+        List<List<Integer>> reverse_preds = new ArrayList<>();
+        List<List<Integer>> reverse_succs = new ArrayList<>();
+        for (int i = 0; i <= exit; i++) {
+            reverse_preds.add(new ArrayList<>());
+            reverse_succs.add(new ArrayList<>());
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            IRNode node = nodes.get(i);
+            for (IRNode succ : node.successors()) {
+                reverse_preds.get(i).add(index_of.get(succ));
+                reverse_succs.get(index_of.get(succ)).add(i);
+            }
+            if (isExitNode(node)) {
+                reverse_preds.get(i).add(exit);
+                reverse_succs.get(exit).add(i);
+            }
+        }
+
+        // reverse postorder of the reversed graph, from the exit (iterative DFS)
+        List<Integer> postorder = new ArrayList<>();
+        boolean[] visited = new boolean[exit + 1];
+        List<Integer> stack = new ArrayList<>();
+        List<Integer> next_succ = new ArrayList<>();
+        stack.add(exit);
+        next_succ.add(0);
+        visited[exit] = true;
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            int node = stack.get(top);
+            int i = next_succ.get(top);
+            if (i < reverse_succs.get(node).size()) {
+                next_succ.set(top, i + 1);
+                int succ = reverse_succs.get(node).get(i);
+                if (!visited[succ]) {
+                    visited[succ] = true;
+                    stack.add(succ);
+                    next_succ.add(0);
+                }
+            } else {
+                postorder.add(node);
+                stack.remove(top);
+                next_succ.remove(top);
+            }
+        }
+        rpo_number = new int[exit + 1];
+        Arrays.fill(rpo_number, -1);
+        List<Integer> reverse_postorder = new ArrayList<>();
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            rpo_number[postorder.get(i)] = reverse_postorder.size();
+            reverse_postorder.add(postorder.get(i));
+        }
+
+        ipdom = new int[exit + 1];
+        Arrays.fill(ipdom, -1);
+        ipdom[exit] = exit;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int node : reverse_postorder) {
+                if (node == exit) {
+                    continue;
+                }
+                int new_ipdom = -1;
+                for (int pred : reverse_preds.get(node)) {
+                    if (ipdom[pred] == -1) {
+                        continue;
+                    }
+                    new_ipdom = (new_ipdom == -1) ? pred : intersect(pred, new_ipdom);
+                }
+                if (new_ipdom != -1 && ipdom[node] != new_ipdom) {
+                    ipdom[node] = new_ipdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static boolean isExitNode(IRNode node) {
+        return node.instruction.opCode == IRInstruction.OpCode.RETURN || node.successors().isEmpty();
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (rpo_number[a] > rpo_number[b]) {
+                a = ipdom[a];
+            }
+            while (rpo_number[b] > rpo_number[a]) {
+                b = ipdom[b];
+            }
+        }
+        return a;
+    }
+
+    public boolean reachesExit(IRNode node) {
+        return ipdom[index_of.get(node)] != -1;
+    }
+
+    // the immediate post-dominator, null if that is the virtual exit (or node never reaches the exit)
+    public IRNode ipdom(IRNode node) {
+        int i = ipdom[index_of.get(node)];
+        return (i == -1 || i == exit) ? null : nodes.get(i);
+    }
+
+    // true if every path from b to the exit goes through a (a node post-dominates itself)
+    public boolean postDominates(IRNode a, IRNode b) {
+        if (!reachesExit(a) || !reachesExit(b)) {
+            return false;
+        }
+        int target = index_of.get(a);
+        int curr = index_of.get(b);
+        while (true) {
+            if (curr == target) {
+                return true;
+            }
+            if (curr == exit) {
+                return false;
+            }
+            curr = ipdom[curr];
+        }
+    }
+}
@@ -0,0 +1,13 @@
+import ir.IRProgram;
+import java.util.Set;
+
+public interface ProgramPass {
+    // A transform that needs to see the whole IRProgram at once (e.g. moves code between functions)
+    String getName();
+
+    // analyses (see Analyses) to throw away for every function the pass changed
+    Set<String> invalidates();
+
+    // returns true if anything in the program was changed
+    boolean run(IRProgram program, AnalysisCache cache);
+}
@@ -0,0 +1,367 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class RangeAnalysis {
+    // Interval analysis for the int vars of a function (forward dataflow over the instruction CFG)
+        // state at a node: var -> [lo, hi] (a var that is not in the map can be anything)
+        // locals start at [0, 0] (the interpreter zeroes them), params and loaded/returned values are unknown
+        // branches narrow the vars they compare on each way out: on the fallthrough of brgeq, end, i, n
+        // we know i < n, so i <= hi(n) - 1
+        // loops: once a loop head (the target of an edge going back in reverse postorder) has been visited
+        // WIDEN_AFTER times a bound that keeps moving jumps to infinity there, after that settles we do a couple
+        // of plain rounds to win back what widening threw away (the branch refinements put the loop bounds back on)
+        // only the heads widen: a widened bound going through i = i + 1 in the body would overflow and lose i
+        // an ARRAY_LOAD/ARRAY_STORE on a local array whose index is always in [0, size - 1] is safe
+        // NOTE: a parameter's declared size is not trusted (nothing makes the caller pass an array that big)
+    // bounds are kept inside int (int arithmetic wraps, so a result that does not fit says nothing)
+    private static final long NEG_INF = Integer.MIN_VALUE;
+    private static final long POS_INF = Integer.MAX_VALUE;
+    private static final int WIDEN_AFTER = 3;
+    private static final int NARROW_ROUNDS = 2;
+
+    public static class Interval {
+        public final long lo;
+        public final long hi;
+
+        public Interval(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        public boolean isEmpty() {
+            return lo > hi;
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof Interval) && ((Interval) o).lo == lo && ((Interval) o).hi == hi;
+        }
+
+        public int hashCode() {
+            return Long.hashCode(lo) * 31 + Long.hashCode(hi);
+        }
+
+        public String toString() {
+            return "[" + ((lo == NEG_INF) ? "-inf" : lo) + ", " + ((hi == POS_INF) ? "+inf" : hi) + "]";
+        }
+    }
+
+    private static final Interval TOP = new Interval(NEG_INF, POS_INF);
+
+    // state before each node (no entry = the node is never reached)
+    public Map<IRNode, Map<String, Interval>> in = new HashMap<>();
+    public Set<IRInstruction> safe_accesses = new HashSet<>();
+    private IRFunction function;
+
+    public RangeAnalysis(IRcfg cfg, IRFunction function) {
+        this.function = function;
+        if (cfg.nodes.isEmpty()) {
+            return;
+        }
+        DominatorTree dom = new DominatorTree(cfg);
+        IRNode entry = cfg.nodes.get(0);
+        Map<String, Interval> entry_state = new HashMap<>();
+        for (IRVariableOperand var : function.variables) {
+            if (var.type == IRIntType.get() && !ArrayAlias.isParameter(function, var.getName())) {
+                entry_state.put(var.getName(), new Interval(0, 0));
+            }
+        }
+
+        Map<IRNode, Integer> rpo_index = new HashMap<>();
+        for (IRNode node : dom.reverse_postorder) {
+            rpo_index.put(node, rpo_index.size());
+        }
+        Set<IRNode> loop_heads = new HashSet<>();
+        for (IRNode node : dom.reverse_postorder) {
+            for (IRNode pred : node.predecessors()) {
+                if (rpo_index.containsKey(pred) && rpo_index.get(pred) >= rpo_index.get(node)) {
+                    loop_heads.add(node);
+                }
+            }
+        }
+
+        Map<IRNode, Integer> visits = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRNode node : dom.reverse_postorder) {
+                Map<String, Interval> new_in = (node == entry) ? joinWith(entry_state, incoming(node)) : incoming(node);
+                if (new_in == null) {
+                    continue;
+                }
+                int visit = visits.merge(node, 1, Integer::sum);
+                Map<String, Interval> old_in = in.get(node);
+                if (old_in != null && visit > WIDEN_AFTER && loop_heads.contains(node)) {
+                    new_in = widen(old_in, new_in);
+                }
+                if (!new_in.equals(old_in)) {
+                    in.put(node, new_in);
+                    changed = true;
+                }
+            }
+        }
+        for (int round = 0; round < NARROW_ROUNDS; round++) {
+            for (IRNode node : dom.reverse_postorder) {
+                Map<String, Interval> new_in = (node == entry) ? joinWith(entry_state, incoming(node)) : incoming(node);
+                if (new_in != null) {
+                    in.put(node, new_in);
+                }
+            }
+        }
+
+        for (IRNode node : cfg.nodes) {
+            if (in.containsKey(node) && isSafeAccess(node.instruction, in.get(node))) {
+                safe_accesses.add(node.instruction);
+            }
+        }
+    }
+
+    // the range of an operand at a point (constants are exact, floats/unknown vars are TOP)
+    public Interval rangeOf(IROperand operand, Map<String, Interval> state) {
+        if (operand instanceof IRConstantOperand) {
+            try {
+                long value = Integer.parseInt(((IRConstantOperand) operand).getValueString());
+                return new Interval(value, value);
+            } catch (NumberFormatException e) {
+                return TOP;
+            }
+        }
+        if (operand instanceof IRVariableOperand) {
+            return state.getOrDefault(((IRVariableOperand) operand).getName(), TOP);
+        }
+        return TOP;
+    }
+
+    private boolean isSafeAccess(IRInstruction instruc, Map<String, Interval> state) {
+        if (instruc.opCode != IRInstruction.OpCode.ARRAY_LOAD && instruc.opCode != IRInstruction.OpCode.ARRAY_STORE) {
+            return false;
+        }
+        IRVariableOperand array = (IRVariableOperand) instruc.operands[1];
+        if (!(array.type instanceof IRArrayType) || ArrayAlias.isParameter(function, array.getName())) {
+            return false;
+        }
+        Interval index = rangeOf(instruc.operands[2], state);
+        return index.lo >= 0 && index.hi < ((IRArrayType) array.type).getSize();
+    }
+
+    // join of what every reached predecessor hands this node (null if none of them is reached yet)
+    private Map<String, Interval> incoming(IRNode node) {
+        Map<String, Interval> result = null;
+        for (IRNode pred : node.predecessors()) {
+            Map<String, Interval> pred_in = in.get(pred);
+            if (pred_in == null) {
+                continue;
+            }
+            Map<String, Interval> edge = edgeState(pred, node, transfer(pred.instruction, pred_in));
+            if (edge != null) {
+                result = (result == null) ? edge : joinWith(result, edge);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Interval> joinWith(Map<String, Interval> a, Map<String, Interval> b) {
+        if (b == null) {
+            return a;
+        }
+        Map<String, Interval> joined = new HashMap<>();
+        for (Map.Entry<String, Interval> entry : a.entrySet()) {
+            Interval other = b.get(entry.getKey());
+            if (other != null) { // missing on either side = anything
+                joined.put(entry.getKey(), new Interval(Math.min(entry.getValue().lo, other.lo), Math.max(entry.getValue().hi, other.hi)));
+            }
+        }
+        return joined;
+    }
+
+    private static Map<String, Interval> widen(Map<String, Interval> old_state, Map<String, Interval> new_state) {
+        Map<String, Interval> widened = new HashMap<>();
+        for (Map.Entry<String, Interval> entry : new_state.entrySet()) {
+            Interval old = old_state.get(entry.getKey());
+            if (old == null) {
+                continue; // was already anything
+            }
+            Interval now = entry.getValue();
+            long lo = (now.lo < old.lo) ? NEG_INF : now.lo;
+            long hi = (now.hi > old.hi) ? POS_INF : now.hi;
+            widened.put(entry.getKey(), new Interval(lo, hi));
+        }
+        return widened;
+    }
+
+    private Map<String, Interval> transfer(IRInstruction instruc, Map<String, Interval> state) {
+        if (instruc.opCode == IRInstruction.OpCode.ASSIGN && instruc.operands.length > 2) {
+            return state; // array init
+        }
+        String dest;
+        Interval value;
+        IROperand[] operands = instruc.operands;
+        switch (instruc.opCode) {
+            case ASSIGN -> value = rangeOf(operands[1], state);
+            case ADD -> value = add(rangeOf(operands[1], state), rangeOf(operands[2], state));
+            case SUB -> value = add(rangeOf(operands[1], state), negate(rangeOf(operands[2], state)));
+            case MULT -> value = mult(rangeOf(operands[1], state), rangeOf(operands[2], state));
+            case DIV -> value = div(rangeOf(operands[1], state), rangeOf(operands[2], state));
+            case AND -> value = and(rangeOf(operands[1], state), rangeOf(operands[2], state));
+            case OR -> value = or(rangeOf(operands[1], state), rangeOf(operands[2], state));
+            case ARRAY_LOAD, CALLR -> value = TOP;
+            default -> {
+                return state;
+            }
+        }
+        dest = ((IRVariableOperand) operands[0]).getName();
+        Map<String, Interval> out = new HashMap<>(state);
+        if (((IRVariableOperand) operands[0]).type != IRIntType.get() || value.equals(TOP)) {
+            out.remove(dest);
+        } else {
+            out.put(dest, value);
+        }
+        return out;
+    }
+
+    // the state along the edge from -> to (null if the branch can never go that way)
+    private Map<String, Interval> edgeState(IRNode from, IRNode to, Map<String, Interval> out) {
+        IRInstruction branch = from.instruction;
+        if (!IRRewriter.isBranch(branch) || from.successors().size() != 2 || from.successors().get(0) == from.successors().get(1)) {
+            return out;
+        }
+        boolean taken = (to == from.successors().get(0)); // IRcfg connects the label first, then the fallthrough
+        IROperand a = branch.operands[1];
+        IROperand b = branch.operands[2];
+        // turn it into a (op) b that holds on this edge, op one of < <= == (or null for "nothing known")
+        String relation;
+        switch (branch.opCode) {
+            case BRLT -> relation = taken ? "<" : ">=";
+            case BRGT -> relation = taken ? ">" : "<=";
+            case BRGEQ -> relation = taken ? ">=" : "<";
+            case BREQ -> relation = taken ? "==" : null;
+            case BRNEQ -> relation = taken ? null : "==";
+            default -> relation = null;
+        }
+        if (relation == null) {
+            return out;
+        }
+        if (relation.equals(">")) { // a > b is b < a
+            IROperand tmp = a;
+            a = b;
+            b = tmp;
+            relation = "<";
+        } else if (relation.equals(">=")) {
+            IROperand tmp = a;
+            a = b;
+            b = tmp;
+            relation = "<=";
+        }
+        Interval ra = rangeOf(a, out);
+        Interval rb = rangeOf(b, out);
+        Interval new_a;
+        Interval new_b;
+        switch (relation) {
+            case "<" -> {
+                new_a = new Interval(ra.lo, Math.min(ra.hi, rb.hi - 1));
+                new_b = new Interval(Math.max(rb.lo, ra.lo + 1), rb.hi);
+            }
+            case "<=" -> {
+                new_a = new Interval(ra.lo, Math.min(ra.hi, rb.hi));
+                new_b = new Interval(Math.max(rb.lo, ra.lo), rb.hi);
+            }
+            default -> {
+                new_a = new Interval(Math.max(ra.lo, rb.lo), Math.min(ra.hi, rb.hi));
+                new_b = new_a;
+            }
+        }
+        if (new_a.isEmpty() || new_b.isEmpty()) {
+            return null;
+        }
+        Map<String, Interval> refined = new HashMap<>(out);
+        setIfIntVar(refined, a, new_a);
+        setIfIntVar(refined, b, new_b);
+        return refined;
+    }
+
+    private static void setIfIntVar(Map<String, Interval> state, IROperand operand, Interval value) {
+        if (operand instanceof IRVariableOperand && ((IRVariableOperand) operand).type == IRIntType.get() && !value.equals(TOP)) {
+            state.put(((IRVariableOperand) operand).getName(), value);
+        }
+    }
+
+    // anything outside of int can wrap around at runtime, so then we know nothing
+    private static Interval fit(long lo, long hi) {
+        if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) {
+            return TOP;
+        }
+        return new Interval(lo, hi);
+    }
+
+    private static Interval add(Interval x, Interval y) {
+        return fit(x.lo + y.lo, x.hi + y.hi);
+    }
+
+    private static Interval negate(Interval x) {
+        return fit(-x.hi, -x.lo);
+    }
+
+    private static Interval mult(Interval x, Interval y) {
+        long[] products = {x.lo * y.lo, x.lo * y.hi, x.hi * y.lo, x.hi * y.hi};
+        return fit(min(products), max(products));
+    }
+
+    private static Interval div(Interval x, Interval y) {
+        if (y.lo <= 0 && y.hi >= 0) {
+            return TOP;
+        }
+        long[] quotients = {x.lo / y.lo, x.lo / y.hi, x.hi / y.lo, x.hi / y.hi};
+        return fit(min(quotients), max(quotients));
+    }
+
+    private static Interval and(Interval x, Interval y) {
+        if (x.lo >= 0 && y.lo >= 0) {
+            return new Interval(0, Math.min(x.hi, y.hi));
+        }
+        if (x.lo >= 0) {
+            return new Interval(0, x.hi);
+        }
+        if (y.lo >= 0) {
+            return new Interval(0, y.hi);
+        }
+        return TOP;
+    }
+
+    private static Interval or(Interval x, Interval y) {
+        if (x.lo >= 0 && y.lo >= 0) {
+            long bound = Long.highestOneBit(Math.max(x.hi, y.hi)) * 2 - 1; // all the bits either could set
+            return fit(Math.max(x.lo, y.lo), Math.max(bound, 0));
+        }
+        return TOP;
+    }
+
+    private static long min(long[] values) {
+        long min = values[0];
+        for (long value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static long max(long[] values) {
+        long max = values[0];
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    public static List<IRInstruction> safeAccessesOf(IRFunction function) {
+        return new ArrayList<>(new RangeAnalysis(new IRcfg(function), function).safe_accesses);
+    }
+}
@@ -0,0 +1,161 @@
+import ir.IRInstruction;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class ReachingDefs {
+    // Reaching definitions and the use-def chains built from them (what markAlg and ADCE walk)
+        // the dataflow runs over basic blocks (runs of nodes with one way in and one way out) with BitSets
+        // indexed by def number, the kill set of a def is every def of the same var (an array init kills
+        // nothing, it may only write part of the array so the defs before it still reach, see Liveness.isArrayInit)
+        //      IN[B] = U OUT[P] for P in B's predecessors
+        //      OUT[B] = GEN[B] U (IN[B] - KILL[B])
+        // the per block sets are only needed while building the chains, the result only keeps the chains
+        // (CSR like the cfg edges: the defs reaching node i are chain_ids[chain_start[i] .. chain_start[i + 1]))
+        // NOTE: a node that uses the same var twice (i.e. add, x, y, y) only gets the defs of y once
+    public IRcfg cfg;
+    private int[] chain_start;
+    private int[] chain_ids;
+
+    public ReachingDefs(IRcfg cfg) {
+        this.cfg = cfg;
+        List<IRNode> nodes = cfg.nodes;
+        int num_nodes = nodes.size();
+        int num_vars = cfg.var_names.size();
+
+        // number the defs and group them by var (CSR again: the defs of var v are var_defs[var_start[v] .. var_start[v + 1]))
+        int[] def_number = new int[num_nodes];
+        int num_defs = 0;
+        int[] var_start = new int[num_vars + 1];
+        for (IRNode node : nodes) {
+            def_number[node.id] = (node.def < 0) ? -1 : num_defs++;
+            if (node.def >= 0) {
+                var_start[node.def + 1]++;
+            }
+        }
+        for (int v = 0; v < num_vars; v++) {
+            var_start[v + 1] += var_start[v];
+        }
+        int[] def_node = new int[num_defs];
+        int[] var_defs = new int[num_defs];
+        int[] next_def = new int[num_vars];
+        for (IRNode node : nodes) {
+            if (node.def >= 0) {
+                def_node[def_number[node.id]] = node.id;
+                var_defs[var_start[node.def] + next_def[node.def]++] = def_number[node.id];
+            }
+        }
+
+        // basic blocks: a node starts one unless its only way in is falling out of the node before it
+        int[] block_of = new int[num_nodes];
+        int num_blocks = 0;
+        for (int i = 0; i < num_nodes; i++) {
+            boolean continues = i > 0 && cfg.pred_start[i + 1] - cfg.pred_start[i] == 1
+                    && cfg.pred_ids[cfg.pred_start[i]] == i - 1 && cfg.succ_start[i] - cfg.succ_start[i - 1] == 1;
+            block_of[i] = continues ? block_of[i - 1] : num_blocks++;
+        }
+        int[] block_start = new int[num_blocks + 1];
+        for (int i = num_nodes - 1; i >= 0; i--) {
+            block_start[block_of[i]] = i;
+        }
+        block_start[num_blocks] = num_nodes;
+
+        BitSet[] gen = new BitSet[num_blocks];
+        BitSet[] kill = new BitSet[num_blocks];
+        BitSet[] in = new BitSet[num_blocks];
+        BitSet[] out = new BitSet[num_blocks];
+        for (int b = 0; b < num_blocks; b++) {
+            gen[b] = new BitSet();
+            kill[b] = new BitSet();
+            in[b] = new BitSet();
+            for (int i = block_start[b]; i < block_start[b + 1]; i++) {
+                int var = nodes.get(i).def;
+                if (var >= 0) {
+                    if (kills(nodes.get(i))) {
+                        for (int d = var_start[var]; d < var_start[var + 1]; d++) {
+                            kill[b].set(var_defs[d]);
+                            gen[b].clear(var_defs[d]);
+                        }
+                    }
+                    gen[b].set(def_number[i]);
+                }
+            }
+            out[b] = (BitSet) gen[b].clone();
+        }
+
+        // Continuously traverse the blocks until IN/OUT do NOT change ==> reached the Fixed Point
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 0; b < num_blocks; b++) {
+                int leader = block_start[b];
+                BitSet new_in = new BitSet();
+                for (int e = cfg.pred_start[leader]; e < cfg.pred_start[leader + 1]; e++) {
+                    new_in.or(out[block_of[cfg.pred_ids[e]]]);
+                }
+                in[b] = new_in;
+                BitSet new_out = (BitSet) new_in.clone();
+                new_out.andNot(kill[b]);
+                new_out.or(gen[b]);
+                if (!new_out.equals(out[b])) {
+                    changed = true;
+                    out[b] = new_out;
+                }
+            }
+        }
+
+        // walk every block from its IN, a use gets the defs of its var that are still reaching at that point
+        chain_start = new int[num_nodes + 1];
+        chain_ids = new int[Math.max(16, num_nodes)];
+        int num_chains = 0;
+        for (int b = 0; b < num_blocks; b++) {
+            BitSet reaching = in[b];
+            for (int i = block_start[b]; i < block_start[b + 1]; i++) {
+                IRNode node = nodes.get(i);
+                chain_start[i] = num_chains;
+                for (int u = 0; u < node.uses.length; u++) {
+                    int var = node.uses[u];
+                    if (indexOf(node.uses, var) != u) { // already did this var
+                        continue;
+                    }
+                    for (int d = var_start[var]; d < var_start[var + 1]; d++) {
+                        if (reaching.get(var_defs[d])) {
+                            if (num_chains == chain_ids.length) {
+                                chain_ids = Arrays.copyOf(chain_ids, chain_ids.length * 2);
+                            }
+                            chain_ids[num_chains++] = def_node[var_defs[d]];
+                        }
+                    }
+                }
+                if (node.def >= 0) {
+                    if (kills(node)) {
+                        for (int d = var_start[node.def]; d < var_start[node.def + 1]; d++) {
+                            reaching.clear(var_defs[d]);
+                        }
+                    }
+                    reaching.set(def_number[i]);
+                }
+            }
+        }
+        chain_start[num_nodes] = num_chains;
+        chain_ids = Arrays.copyOf(chain_ids, num_chains);
+    }
+
+    private static boolean kills(IRNode node) {
+        return !(node.instruction.opCode == IRInstruction.OpCode.ASSIGN && node.instruction.operands.length > 2);
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // use-def chain: the defs that reach one of the vars node uses
+    public List<IRNode> reachingDefs(IRNode node) {
+        return cfg.nodeList(chain_ids, chain_start[node.id], chain_start[node.id + 1]);
+    }
+}
@@ -0,0 +1,100 @@
+import ir.IRInstruction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.Imm;
+import main.java.mips.operand.MIPSOperand;
+import main.java.mips.operand.Register;
+
+public interface RegisterAllocator {
+    // Maps the virtual registers of one function's selected code (see InstructionSelector) to physical ones
+        // whatever has to live in memory gets a slot from the frame (Frame.slotFor), the frame is finished after
+        // this so the allocator decides how big it gets
+        // physical registers in the input ($sp, $a0, $v0, ...) are left alone
+    String getName();
+
+    // origins: the IR instruction each instruction of code came from (see InstructionSelector.origins)
+    List<MIPSInstruction> allocate(List<MIPSInstruction> code, List<IRInstruction> origins, Frame frame);
+
+    // one record per function allocated so far
+    AllocationReport getReport();
+
+    // instruc with its registers (including the ones in addresses) replaced as map (by name) says
+        // (by name since Register has equals but no hashCode)
+    static MIPSInstruction rewrite(MIPSInstruction instruc, Map<String, Register> map) {
+        List<MIPSOperand> operands = new ArrayList<>();
+        for (MIPSOperand operand : instruc.operands) {
+            if (operand instanceof Register) {
+                operands.add(map.getOrDefault(((Register) operand).name, (Register) operand));
+            } else if (operand instanceof Addr && ((Addr) operand).register != null) {
+                Addr addr = (Addr) operand;
+                Register reg = map.getOrDefault(addr.register.name, addr.register);
+                operands.add((addr.mode == Addr.Mode.REGISTER) ? new Addr(reg) : new Addr(addr.constant, reg));
+            } else {
+                operands.add(operand);
+            }
+        }
+        return new MIPSInstruction(instruc.op, instruc.label, operands.toArray(new MIPSOperand[0]));
+    }
+
+    // the virtual registers instruc reads (each once, in operand order)
+    static List<Register> virtualReads(MIPSInstruction instruc) {
+        List<Register> reads = new ArrayList<>();
+        for (Register reg : instruc.getReads()) {
+            if (reg.isVirtual && !reads.contains(reg)) {
+                reads.add(reg);
+            }
+        }
+        return reads;
+    }
+
+    // the virtual register instruc writes (null if none)
+    static Register virtualWrite(MIPSInstruction instruc) {
+        Register reg = instruc.getWrite();
+        return (reg != null && reg.isVirtual) ? reg : null;
+    }
+
+    // lw reg, <the slot of name>($sp)
+    static MIPSInstruction load(Register reg, String name, Frame frame) {
+        return new MIPSInstruction(MIPSOp.LW, null, reg, new Addr(imm(frame.slotFor(name)), new Register("$sp", false)));
+    }
+
+    // sw reg, <the slot of name>($sp)
+    static MIPSInstruction store(Register reg, String name, Frame frame) {
+        return new MIPSInstruction(MIPSOp.SW, null, reg, new Addr(imm(frame.slotFor(name)), new Register("$sp", false)));
+    }
+
+    // instruc rewritten as map says, the virtual registers it has no register for live in their slots:
+        // the ones it reads get lw'd into scratch[0], scratch[1], ... right before it (an instruction reads at most 2)
+        // the one it writes gets sw'd right after it, from scratch[0] (or from where it was loaded if it also reads it)
+    static void emitWithSpills(MIPSInstruction instruc, Map<String, Register> map, Register[] scratch, Frame frame,
+                               List<MIPSInstruction> allocated, AllocationReport.Record record) {
+        Map<String, Register> instruc_map = new HashMap<>(map);
+        int next = 0;
+        for (Register reg : virtualReads(instruc)) {
+            if (!map.containsKey(reg.name)) {
+                instruc_map.put(reg.name, scratch[next]);
+                allocated.add(load(scratch[next++], reg.name, frame));
+                record.loads++;
+            }
+        }
+        Register write = virtualWrite(instruc);
+        boolean spilled_write = write != null && !map.containsKey(write.name);
+        if (spilled_write) {
+            instruc_map.putIfAbsent(write.name, scratch[0]);
+        }
+        allocated.add(rewrite(instruc, instruc_map));
+        if (spilled_write) {
+            allocated.add(store(instruc_map.get(write.name), write.name, frame));
+            record.stores++;
+        }
+    }
+
+    static Imm imm(int value) {
+        return new Imm("" + value, "DEC");
+    }
+}
@@ -0,0 +1,181 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import main.java.mips.MIPSInstruction;
+import main.java.mips.MIPSOp;
+import main.java.mips.operand.Addr;
+import main.java.mips.operand.MIPSOperand;
+import main.java.mips.operand.Register;
+
+public class SideEffects {
+    // Per function summary of what a call to it can do to the caller, built bottom-up over the call graph
+        // does_io: reads/prints through an intrinsic (geti, puti, ...) somewhere down the call chain
+        // written_params: positions of array params it (or something it calls with them) writes into
+        // clobbered_registers: physical registers it (or something it calls) writes, only known after
+        //                      instruction selection (see computeClobbers)
+        // inside a recursive SCC we start from "does nothing" and iterate until the summaries stop growing
+    public static final String NAME = "side-effects";
+
+    public static class Summary {
+        public boolean does_io = false;
+        public Set<Integer> written_params = new HashSet<>();
+        public Set<String> clobbered_registers = new HashSet<>();
+
+        public boolean isPure() {
+            return !does_io && written_params.isEmpty();
+        }
+    }
+
+    private Map<String, Summary> summaries = new HashMap<>();
+    private CallGraph call_graph;
+
+    public SideEffects(IRProgram program) {
+        call_graph = new CallGraph(program);
+        for (List<IRFunction> scc : call_graph.sccs) {
+            for (IRFunction function : scc) {
+                summaries.put(function.name, new Summary());
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (IRFunction function : scc) {
+                    changed |= summarize(function);
+                }
+            }
+        }
+    }
+
+    // null for intrinsics and functions we never saw
+    public Summary summaryOf(String function_name) {
+        return summaries.get(function_name);
+    }
+
+    // a call to this can go if nobody uses what it returns
+    public boolean isPure(String function_name) {
+        Summary summary = summaries.get(function_name);
+        return summary != null && summary.isPure();
+    }
+
+    // true if the call may write into the array it gets as argument arg_index (0 = first arg)
+    public boolean mayWriteArg(String function_name, int arg_index) {
+        Summary summary = summaries.get(function_name);
+        return summary == null || summary.written_params.contains(arg_index);
+    }
+
+    // returns true if the summary grew
+    private boolean summarize(IRFunction function) {
+        Summary summary = summaries.get(function.name);
+        boolean does_io = summary.does_io;
+        Set<Integer> written_params = new HashSet<>(summary.written_params);
+        for (IRInstruction instruc : function.instructions) {
+            switch (instruc.opCode) {
+                case ARRAY_STORE -> addParam(function, ((IRVariableOperand) instruc.operands[1]).getName(), written_params);
+                case ASSIGN -> {
+                    if (instruc.operands.length > 2) {
+                        addParam(function, ((IRVariableOperand) instruc.operands[0]).getName(), written_params);
+                    }
+                }
+                case CALL, CALLR -> {
+                    String callee = CallGraph.calleeName(instruc);
+                    Summary callee_summary = summaries.get(callee);
+                    if (callee_summary == null) {
+                        does_io = true; // an intrinsic (or something we cannot see into)
+                        continue;
+                    }
+                    does_io |= callee_summary.does_io;
+                    int first_arg = (instruc.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+                    for (int i = first_arg; i < instruc.operands.length; i++) {
+                        IROperand arg = instruc.operands[i];
+                        if (arg instanceof IRVariableOperand && ((IRVariableOperand) arg).type instanceof IRArrayType
+                                && callee_summary.written_params.contains(i - first_arg)) {
+                            addParam(function, ((IRVariableOperand) arg).getName(), written_params);
+                        }
+                    }
+                }
+                default -> {
+                    break;
+                }
+            }
+        }
+        boolean grew = does_io != summary.does_io || !written_params.equals(summary.written_params);
+        summary.does_io = does_io;
+        summary.written_params = written_params;
+        return grew;
+    }
+
+    private static void addParam(IRFunction function, String var, Set<Integer> written_params) {
+        for (int i = 0; i < function.parameters.size(); i++) {
+            if (function.parameters.get(i).getName().equals(var)) {
+                written_params.add(i);
+            }
+        }
+    }
+
+    // Fills in clobbered_registers from the selected MIPS code of every function (function name -> its code):
+    // every physical register written, $ra for a jal, $v0 for a syscall, plus whatever the callees clobber
+    public void computeClobbers(Map<String, List<MIPSInstruction>> code) {
+        for (List<IRFunction> scc : call_graph.sccs) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (IRFunction function : scc) {
+                    Summary summary = summaries.get(function.name);
+                    Set<String> clobbered = new HashSet<>(summary.clobbered_registers);
+                    for (MIPSInstruction instruc : code.getOrDefault(function.name, List.of())) {
+                        Register written = writtenRegister(instruc);
+                        if (written != null && !written.isVirtual) {
+                            clobbered.add(written.name);
+                        }
+                        if (instruc.op == MIPSOp.JAL) {
+                            clobbered.add("$ra");
+                            String callee = ((Addr) instruc.operands.get(0)).label;
+                            Summary callee_summary = summaries.get(callee);
+                            if (callee_summary != null) {
+                                clobbered.addAll(callee_summary.clobbered_registers);
+                            }
+                        } else if (instruc.op == MIPSOp.SYSCALL) {
+                            clobbered.add("$v0");
+                        }
+                    }
+                    if (!clobbered.equals(summary.clobbered_registers)) {
+                        summary.clobbered_registers = clobbered;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // the register an instruction writes (null for stores, branches, jumps)
+    public static Register writtenRegister(MIPSInstruction instruc) {
+        switch (instruc.op) {
+            case ADD, ADDI, SUB, MUL, DIV, AND, ANDI, OR, ORI, SLL, LI, LW, MOVE, LA -> {
+                MIPSOperand dest = instruc.operands.get(0);
+                return (dest instanceof Register) ? (Register) dest : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    // the caller only has to save the registers it needs after the call that the callee actually writes
+    // (unknown callees and intrinsics can write anything, so everything live gets saved)
+    public Set<String> registersToSave(String callee, Set<String> live_across_call) {
+        Summary summary = summaries.get(callee);
+        if (summary == null) {
+            return new HashSet<>(live_across_call);
+        }
+        Set<String> to_save = new HashSet<>(live_across_call);
+        to_save.retainAll(summary.clobbered_registers);
+        return to_save;
+    }
+}
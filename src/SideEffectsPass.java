@@ -0,0 +1,19 @@
+import ir.IRProgram;
+import java.util.Set;
+
+public class SideEffectsPass implements ProgramPass {
+    // Computes the SideEffects summaries and leaves them in the cache for the function passes
+    // (does not change anything itself)
+    public String getName() {
+        return SideEffects.NAME;
+    }
+
+    public Set<String> invalidates() {
+        return Set.of();
+    }
+
+    public boolean run(IRProgram program, AnalysisCache cache) {
+        cache.putProgramResult(SideEffects.NAME, new SideEffects(program));
+        return false;
+    }
+}
@@ -0,0 +1,273 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SimplifyCFGPass implements FunctionPass {
+    // Cleans up the control flow DCE leaves behind (sweepAlg keeps every label and the marked jumps)
+        // 1. unreachable code (nothing jumps or falls into it) is removed
+        // 2. jumps to a label that just does goto M (maybe through more labels/gotos) go straight to M
+        // 3. a goto/branch to the label right after it is removed
+        //    brX L1, a, b; goto L2; L1:   ==>   br!X L2, a, b; L1:
+        // 4. goto L where L's block is only reached by that goto: the block is moved in place of the goto
+        //    (straight line blocks merge, it has to end in a goto/return so it does not care where it sits)
+        // 5. labels nobody jumps to are removed
+        // repeat until nothing changes
+    public String getName() {
+        return "simplify-cfg";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        boolean changed = false;
+        boolean changed_round = true;
+        while (changed_round) {
+            changed_round = removeUnreachable(function);
+            changed_round |= threadJumps(function);
+            changed_round |= removeFallthroughJumps(function);
+            changed_round |= mergeBlocks(function);
+            changed_round |= removeUnusedLabels(function);
+            changed |= changed_round;
+        }
+        return changed;
+    }
+
+    private static boolean removeUnreachable(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return false;
+        }
+        IRcfg cfg = new IRcfg(function);
+        Set<IRNode> reachable = new HashSet<>();
+        List<IRNode> worklist = new ArrayList<>();
+        worklist.add(cfg.nodes.get(0));
+        reachable.add(cfg.nodes.get(0));
+        while (!worklist.isEmpty()) {
+            IRNode node = worklist.remove(worklist.size() - 1);
+            for (IRNode succ : node.successors()) {
+                if (reachable.add(succ)) {
+                    worklist.add(succ);
+                }
+            }
+        }
+        if (reachable.size() == cfg.nodes.size()) {
+            return false;
+        }
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        for (IRNode node : cfg.nodes) {
+            if (reachable.contains(node)) {
+                new_instructions.add(node.instruction);
+            }
+        }
+        function.instructions = new_instructions;
+        return true;
+    }
+
+    // label -> position in the instruction list
+    private static Map<String, Integer> labelPositions(List<IRInstruction> instructions) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            String label = IRRewriter.labelOf(instructions.get(i));
+            if (label != null) {
+                positions.put(label, i);
+            }
+        }
+        return positions;
+    }
+
+    // index of the first non-label instruction at or after pos (instructions.size() if there is none)
+    private static int skipLabels(List<IRInstruction> instructions, int pos) {
+        while (pos < instructions.size() && instructions.get(pos).opCode == IRInstruction.OpCode.LABEL) {
+            pos++;
+        }
+        return pos;
+    }
+
+    // where a jump to label really ends up, following label: goto, M chains (stops on a cycle)
+    private static String finalTarget(List<IRInstruction> instructions, Map<String, Integer> positions, String label) {
+        Set<String> seen = new HashSet<>();
+        String target = label;
+        while (seen.add(target)) {
+            int pos = skipLabels(instructions, positions.get(target));
+            if (pos >= instructions.size() || instructions.get(pos).opCode != IRInstruction.OpCode.GOTO) {
+                break;
+            }
+            String next = IRRewriter.targetOf(instructions.get(pos));
+            if (!positions.containsKey(next)) {
+                break;
+            }
+            target = next;
+        }
+        return target;
+    }
+
+    private static boolean threadJumps(IRFunction function) {
+        List<IRInstruction> instructions = function.instructions;
+        Map<String, Integer> positions = labelPositions(instructions);
+        boolean changed = false;
+        for (IRInstruction instruc : instructions) {
+            String target = IRRewriter.targetOf(instruc);
+            if (target == null || !positions.containsKey(target)) {
+                continue;
+            }
+            String final_target = finalTarget(instructions, positions, target);
+            if (!final_target.equals(target)) {
+                IRRewriter.retarget(instruc, final_target);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // true if jumping to label is the same as just carrying on after position pos
+    private static boolean labelFollows(List<IRInstruction> instructions, int pos, String label) {
+        for (int i = pos + 1; i < instructions.size() && instructions.get(i).opCode == IRInstruction.OpCode.LABEL; i++) {
+            if (label.equals(IRRewriter.labelOf(instructions.get(i)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean removeFallthroughJumps(IRFunction function) {
+        List<IRInstruction> instructions = function.instructions;
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruc = instructions.get(i);
+            String target = IRRewriter.targetOf(instruc);
+            if (target != null && labelFollows(instructions, i, target)) {
+                changed = true; // branch compares have no side effects so both kinds can go
+                continue;
+            }
+            // brX L1; goto L2; L1:  ==>  br!X L2; L1:
+            if (target != null && IRRewriter.isBranch(instruc) && i + 1 < instructions.size()
+                    && instructions.get(i + 1).opCode == IRInstruction.OpCode.GOTO && labelFollows(instructions, i + 1, target)) {
+                IRInstruction inverted = invertBranch(instruc, IRRewriter.targetOf(instructions.get(i + 1)));
+                if (inverted != null) {
+                    new_instructions.add(inverted);
+                    i++; // skip the goto
+                    changed = true;
+                    continue;
+                }
+            }
+            new_instructions.add(instruc);
+        }
+        if (changed) {
+            function.instructions = new_instructions;
+        }
+        return changed;
+    }
+
+    // the branch taken exactly when instruc is not taken, going to new_target (null if we cannot express it:
+    // there is no brleq so a > b flips to b >= a, and operand 1 has to be a var for the interpreter)
+    private static IRInstruction invertBranch(IRInstruction instruc, String new_target) {
+        IROperand a = instruc.operands[1];
+        IROperand b = instruc.operands[2];
+        IRInstruction.OpCode op;
+        boolean swap = false;
+        switch (instruc.opCode) {
+            case BREQ -> op = IRInstruction.OpCode.BRNEQ;
+            case BRNEQ -> op = IRInstruction.OpCode.BREQ;
+            case BRLT -> op = IRInstruction.OpCode.BRGEQ;
+            case BRGEQ -> op = IRInstruction.OpCode.BRLT;
+            case BRGT -> {
+                op = IRInstruction.OpCode.BRGEQ;
+                swap = true;
+            }
+            default -> {
+                return null;
+            }
+        }
+        if (swap) {
+            IROperand tmp = a;
+            a = b;
+            b = tmp;
+        }
+        if (!(a instanceof IRVariableOperand)) {
+            return null;
+        }
+        IRInstruction inverted = new IRInstruction(op, null, instruc.irLineNumber);
+        inverted.operands = new IROperand[]{null, a, b};
+        IRRewriter.retarget(inverted, new_target);
+        return inverted;
+    }
+
+    private static boolean endsBlock(IRInstruction instruc) {
+        return instruc.opCode == IRInstruction.OpCode.GOTO || instruc.opCode == IRInstruction.OpCode.RETURN;
+    }
+
+    private static boolean mergeBlocks(IRFunction function) {
+        List<IRInstruction> instructions = function.instructions;
+        Map<String, Integer> references = new HashMap<>();
+        for (IRInstruction instruc : instructions) {
+            String target = IRRewriter.targetOf(instruc);
+            if (target != null) {
+                references.merge(target, 1, Integer::sum);
+            }
+        }
+        Map<String, Integer> positions = labelPositions(instructions);
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction jump = instructions.get(i);
+            if (jump.opCode != IRInstruction.OpCode.GOTO) {
+                continue;
+            }
+            String target = IRRewriter.targetOf(jump);
+            Integer start = positions.get(target);
+            // only this goto gets there, and nothing falls into it
+            if (start == null || references.get(target) != 1 || start == 0 || !endsBlock(instructions.get(start - 1))) {
+                continue;
+            }
+            // the block runs up to the first goto/return, branches inside it are fine
+            int end = start;
+            while (end < instructions.size() && !endsBlock(instructions.get(end))) {
+                end++;
+            }
+            if (end >= instructions.size() || (i >= start && i <= end)) {
+                continue;
+            }
+            List<IRInstruction> block = new ArrayList<>(instructions.subList(start, end + 1));
+            List<IRInstruction> new_instructions = new ArrayList<>();
+            for (int j = 0; j < instructions.size(); j++) {
+                if (j == i) {
+                    new_instructions.addAll(block);
+                } else if (j < start || j > end) {
+                    new_instructions.add(instructions.get(j));
+                }
+            }
+            function.instructions = new_instructions;
+            return true; // positions are stale now, the next round picks up the rest
+        }
+        return false;
+    }
+
+    private static boolean removeUnusedLabels(IRFunction function) {
+        Set<String> referenced = new HashSet<>();
+        for (IRInstruction instruc : function.instructions) {
+            String target = IRRewriter.targetOf(instruc);
+            if (target != null) {
+                referenced.add(target);
+            }
+        }
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        for (IRInstruction instruc : function.instructions) {
+            String label = IRRewriter.labelOf(instruc);
+            if (label == null || referenced.contains(label)) {
+                new_instructions.add(instruc);
+            }
+        }
+        if (new_instructions.size() == function.instructions.size()) {
+            return false;
+        }
+        function.instructions = new_instructions;
+        return true;
+    }
+}
@@ -0,0 +1,197 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TailRecursionPass implements FunctionPass {
+    // Turns a self call in tail position into a loop back to the top of the function
+        // tail position: after the call we only go through labels/gotos and then hit the end of the
+        // function (call) or return, x where x is what the call returned (callr, x, ...)
+        //      call, f, A, j, hi        ==>    assign, lo, j        (params get the args)
+        //      end:                             assign, v, 0         (locals read before written start at 0 again)
+        //                                       goto, f_tail_entry   (a new label in front of the first instruction)
+        // if an arg reads a param that gets reassigned first, it goes through a temp
+        // array params are not vars we can assign to, so the call has to pass them along as they are
+    public String getName() {
+        return "tail-recursion";
+    }
+
+    public Set<String> invalidates() {
+        return Set.of(Analyses.ALL);
+    }
+
+    public boolean run(IRFunction function, AnalysisCache cache) {
+        List<IRInstruction> instructions = function.instructions;
+        // every call starts with its own zeroed local arrays, a loop would keep the old ones
+        for (IRVariableOperand var : function.variables) {
+            if (var.type instanceof IRArrayType && !ArrayAlias.isParameter(function, var.getName())) {
+                return false;
+            }
+        }
+
+        List<IRInstruction> tail_calls = new ArrayList<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (isSelfCall(function, instructions.get(i)) && isTailPosition(instructions, i) && passesArraysThrough(function, instructions.get(i))) {
+                tail_calls.add(instructions.get(i));
+            }
+        }
+        if (tail_calls.isEmpty()) {
+            return false;
+        }
+
+        // locals that are read before being written on some path from the entry
+        List<IRVariableOperand> zeroed_locals = new ArrayList<>();
+        Liveness liveness = cache.get(function, Analyses.LIVENESS);
+        IRcfg cfg = cache.get(function, Analyses.CFG);
+        Set<String> live_at_entry = liveness.liveIn(cfg.nodes.get(0));
+        for (IRVariableOperand var : function.variables) {
+            if (!ArrayAlias.isParameter(function, var.getName()) && live_at_entry.contains(var.getName())) {
+                zeroed_locals.add(var);
+            }
+        }
+
+        Set<String> taken_vars = new HashSet<>();
+        for (IRVariableOperand var : function.variables) {
+            taken_vars.add(var.getName());
+        }
+        for (IRVariableOperand param : function.parameters) {
+            taken_vars.add(param.getName());
+        }
+        String entry_label = IRRewriter.freshName(function.name + "_tail_entry", IRRewriter.labelNames(function));
+        int line_number = IRRewriter.maxLineNumber(function);
+        Map<IRInstruction, List<IRInstruction>> replacements = new HashMap<>();
+        List<IRVariableOperand> new_variables = new ArrayList<>(function.variables);
+        for (IRInstruction call : tail_calls) {
+            List<IRInstruction> loop_back = new ArrayList<>();
+            int first_arg = (call.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+
+            // which params change, and which args read one of those
+            Set<String> reassigned = new HashSet<>();
+            for (int i = 0; i < function.parameters.size(); i++) {
+                IRVariableOperand param = function.parameters.get(i);
+                if (!(param.type instanceof IRArrayType) && !isVar(call.operands[first_arg + i], param.getName())) {
+                    reassigned.add(param.getName());
+                }
+            }
+            IROperand[] values = new IROperand[function.parameters.size()];
+            for (int i = 0; i < function.parameters.size(); i++) {
+                IRVariableOperand param = function.parameters.get(i);
+                IROperand arg = call.operands[first_arg + i];
+                values[i] = arg;
+                if (!reassigned.contains(param.getName())) {
+                    continue;
+                }
+                if (arg instanceof IRVariableOperand && reassigned.contains(((IRVariableOperand) arg).getName())) {
+                    IRVariableOperand temp = new IRVariableOperand(param.type, IRRewriter.freshName(param.getName() + "_tail", taken_vars), null);
+                    new_variables.add(temp);
+                    loop_back.add(newAssign(temp, arg, ++line_number));
+                    values[i] = temp;
+                }
+            }
+            for (int i = 0; i < function.parameters.size(); i++) {
+                IRVariableOperand param = function.parameters.get(i);
+                if (reassigned.contains(param.getName())) {
+                    loop_back.add(newAssign(param, values[i], ++line_number));
+                }
+            }
+            for (IRVariableOperand var : zeroed_locals) {
+                String zero = (var.type == IRFloatType.get()) ? "0.0" : "0";
+                loop_back.add(newAssign(var, new IRConstantOperand(var.type, zero, null), ++line_number));
+            }
+            loop_back.add(IRRewriter.newGoto(entry_label, ++line_number));
+            replacements.put(call, loop_back);
+        }
+
+        List<IRInstruction> new_instructions = new ArrayList<>();
+        new_instructions.add(IRRewriter.newLabel(entry_label, ++line_number));
+        for (IRInstruction instruc : instructions) {
+            new_instructions.addAll(replacements.getOrDefault(instruc, List.of(instruc)));
+        }
+        function.instructions = new_instructions;
+        function.variables = new_variables;
+        return true;
+    }
+
+    private static boolean isSelfCall(IRFunction function, IRInstruction instruc) {
+        return function.name.equals(CallGraph.calleeName(instruc));
+    }
+
+    private static boolean isVar(IROperand operand, String name) {
+        return operand instanceof IRVariableOperand && ((IRVariableOperand) operand).getName().equals(name);
+    }
+
+    // follow labels and gotos from right after the call, we have to reach the end of the function
+    // (call) or return the call's result (callr)
+    private static boolean isTailPosition(List<IRInstruction> instructions, int call_pos) {
+        IRInstruction call = instructions.get(call_pos);
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            String label = IRRewriter.labelOf(instructions.get(i));
+            if (label != null) {
+                positions.put(label, i);
+            }
+        }
+        Set<Integer> seen = new HashSet<>();
+        int pos = call_pos + 1;
+        while (seen.add(pos)) {
+            if (pos >= instructions.size()) {
+                return call.opCode == IRInstruction.OpCode.CALL;
+            }
+            IRInstruction instruc = instructions.get(pos);
+            switch (instruc.opCode) {
+                case LABEL -> pos++;
+                case GOTO -> {
+                    Integer target = positions.get(IRRewriter.targetOf(instruc));
+                    if (target == null) {
+                        return false;
+                    }
+                    pos = target;
+                }
+                case RETURN -> {
+                    return call.opCode == IRInstruction.OpCode.CALLR
+                            && isVar(instruc.operands[0], ((IRVariableOperand) call.operands[0]).getName());
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return false; // goto loop with nothing in it
+    }
+
+    private static boolean passesArraysThrough(IRFunction function, IRInstruction call) {
+        int first_arg = (call.opCode == IRInstruction.OpCode.CALL) ? 1 : 2;
+        if (call.operands.length - first_arg != function.parameters.size()) {
+            return false;
+        }
+        for (int i = 0; i < function.parameters.size(); i++) {
+            IRVariableOperand param = function.parameters.get(i);
+            if (param.type instanceof IRArrayType && !isVar(call.operands[first_arg + i], param.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IRInstruction newAssign(IRVariableOperand dest, IROperand value, int line_number) {
+        IRInstruction assign = new IRInstruction(IRInstruction.OpCode.ASSIGN, null, line_number);
+        IROperand value_copy;
+        if (value instanceof IRVariableOperand) {
+            value_copy = new IRVariableOperand(((IRVariableOperand) value).type, ((IRVariableOperand) value).getName(), assign);
+        } else {
+            IRConstantOperand constant = (IRConstantOperand) value;
+            value_copy = new IRConstantOperand(constant.type, constant.getValueString(), assign);
+        }
+        assign.operands = new IROperand[]{new IRVariableOperand(dest.type, dest.getName(), assign), value_copy};
+        return assign;
+    }
+}
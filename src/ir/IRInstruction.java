@@ -26,6 +26,9 @@ public class IRInstruction {
 
     public int irLineNumber;
 
+    // false once RangeAnalysis proved this ARRAY_LOAD/ARRAY_STORE index is always in bounds
+    public boolean needsBoundsCheck = true;
+
     public IRInstruction() {}
 
     public IRInstruction(OpCode opCode, IROperand[] operands, int irLineNumber) {
@@ -153,6 +153,20 @@ public class IRReader {
         return new IRProgram(functions);
     }
 
+    /**
+     * Parses a single function as printed by IRPrinter.printFunction (lines.get(i) gets line number
+     * lineNumbers.get(i)), calls are not checked since the callees are not known here
+     */
+    public IRFunction parseFunctionText(List<String> lines, List<Integer> lineNumbers) throws IRException {
+        List<IRLine> irLines = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (!line.isEmpty())
+                irLines.add(new IRLine(lineNumbers.get(i), line));
+        }
+        return parseFunction(irLines);
+    }
+
     private Pattern typePattern = Pattern.compile("^(?:(void)|(?:(int|float)(?:\\[(\\d+)\\])?))$");
 
     private IRType parseType(String typeStr, int lineNumber) throws IRException {